@@ -0,0 +1,236 @@
+package blog.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log that never makes a request wait. Request threads copy a few fields into a
+ * preallocated ring of slots (a CAS to claim one, a volatile write to publish it) and
+ * return; a background thread drains published slots in batches, formats them as JSON
+ * lines and writes them to the log file, rotating it at maxBytes.
+ *
+ * If the writer falls behind and the ring is full, records are dropped and counted
+ * rather than blocking the request. Nothing is formatted or allocated on the request
+ * path beyond what the caller already holds.
+ */
+final class AccessLog {
+    private static final int BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /** One line of the log; null components are left out. */
+    record Line(String time, String method, String route, String path, int status, long bytes,
+                double ms, Double upstreamMs, String remote) { }
+
+    /** A ring slot. Fields are plain; {@link #published} is written last and read first. */
+    private static final class Slot {
+        volatile long published = -1;
+        long timeMillis;
+        String method;
+        String route;
+        String path;
+        int status;
+        long bytes;
+        long durationNanos;
+        long upstreamNanos;
+        InetSocketAddress remote;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final Path file;
+    private final long maxBytes;
+    private final int keepFiles;
+    // next sequence to claim / next to drain
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private OutputStream out;
+    private long fileBytes;
+
+    /** capacity is rounded up to a power of two; keepFiles counts the rotated files kept besides the live one. */
+    AccessLog(Path file, int capacity, long maxBytes, int keepFiles) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot();
+        this.mask = size - 1;
+        this.file = file.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.keepFiles = Math.max(0, keepFiles);
+        this.writer = new Thread(this::drainLoop, "access-log");
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+        // daemon thread: write out what is buffered when the JVM exits normally
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "access-log-flush"));
+    }
+
+    /** Queues one record; returns false (and counts it) if the ring is full. */
+    boolean log(String method, String route, String path, int status, long bytes,
+                long durationNanos, long upstreamNanos, InetSocketAddress remote) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        Slot s = slots[(int) (seq & mask)];
+        s.timeMillis = System.currentTimeMillis();
+        s.method = method;
+        s.route = route;
+        s.path = path;
+        s.status = status;
+        s.bytes = bytes;
+        s.durationNanos = durationNanos;
+        s.upstreamNanos = upstreamNanos;
+        s.remote = remote;
+        s.published = seq;
+        return true;
+    }
+
+    long dropped() { return dropped.sum(); }
+
+    long written() { return written.sum(); }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                if (drain() == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+            } catch (IOException e) {
+                // keep serving without a log rather than dying; retried with a fresh file next round
+                System.err.println("Access log: " + e.getMessage());
+                closeFile();
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+    }
+
+    /** Writes up to one batch of published records and returns how many. */
+    private synchronized int drain() throws IOException {
+        int n = 0;
+        long h = head;
+        while (n < BATCH) {
+            Slot s = slots[(int) (h & mask)];
+            if (s.published != h) break;
+            Line line = new Line(Instant.ofEpochMilli(s.timeMillis).toString(), s.method, s.route, s.path,
+                    s.status, s.bytes, s.durationNanos / 1e6,
+                    s.upstreamNanos >= 0 ? s.upstreamNanos / 1e6 : null,
+                    s.remote == null ? null
+                            : s.remote.getAddress() != null ? s.remote.getAddress().getHostAddress() : s.remote.getHostString());
+            // drop references so the ring doesn't keep request strings alive
+            s.method = s.route = s.path = null;
+            s.remote = null;
+            h++;
+            head = h;
+            write(line);
+            n++;
+        }
+        if (n > 0) {
+            // null when the last line of the batch rotated the file
+            if (out != null) out.flush();
+            written.add(n);
+        }
+        return n;
+    }
+
+    private void write(Line line) throws IOException {
+        if (out == null) open();
+        CountingStream counted = new CountingStream(out);
+        Json.write(line, counted);
+        out.write('\n');
+        fileBytes += counted.count + 1;
+        if (fileBytes >= maxBytes) rotate();
+    }
+
+    private void open() throws IOException {
+        Path dir = file.getParent();
+        if (dir != null) Files.createDirectories(dir);
+        out = new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), 64 * 1024);
+        fileBytes = Files.size(file);
+    }
+
+    /** access.log becomes access.log.1, .1 becomes .2, and so on; the oldest beyond keepFiles is deleted. */
+    private void rotate() throws IOException {
+        closeFile();
+        if (keepFiles == 0) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Files.deleteIfExists(rotated(keepFiles));
+        for (int i = keepFiles - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rotated(int i) {
+        return file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // the stream is gone either way
+        }
+        out = null;
+    }
+
+    /** Stops the writer and flushes what has been published so far. */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            while (drain() > 0) {
+                // keep going until the ring is empty
+            }
+        } catch (IOException e) {
+            System.err.println("Access log: " + e.getMessage());
+        }
+        synchronized (this) {
+            closeFile();
+        }
+    }
+
+    /** Passes writes through and counts the bytes; also used to measure response bodies. */
+    static final class CountingStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingStream(OutputStream out) { this.out = out; }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override public void flush() throws IOException { out.flush(); }
+
+        @Override public void close() throws IOException { out.close(); }
+    }
+}
@@ -0,0 +1,242 @@
+package blog.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The whole static site packed into one file at build time: every asset's bytes, its
+ * precompressed gzip/deflate variants, and a manifest with path, content type, mtime and
+ * content hash. At startup the file is memory-mapped and the manifest read into a
+ * HashMap keyed by URL path, so serving an asset is one hash lookup and a copy out of the
+ * mapping: no path normalization, no stat, no read, no compression per request.
+ *
+ * Layout (big-endian): magic, the variant bodies back to back, the manifest, then a
+ * trailer with the manifest offset and the magic again. Strings are an int length plus
+ * UTF-8 bytes. Per asset: path, content type, mtime, hash tag, variant count, then for
+ * each variant its encoding, offset and length.
+ *
+ * The bundle is a snapshot: files changed after the build are not seen until it is rebuilt.
+ */
+final class AssetBundle {
+    private static final long MAGIC = 0x424c4f4741534231L; // "BLOGASB1"
+    private static final int TRAILER = 16;
+
+    private final Path file;
+    private final Map<String, AssetCache.Asset> assets;
+    private final long bytes;
+
+    private AssetBundle(Path file, Map<String, AssetCache.Asset> assets, long bytes) {
+        this.file = file;
+        this.assets = assets;
+        this.bytes = bytes;
+    }
+
+    /** Asset for a URL path such as "/blog/java-oop.html", or null if the bundle has none. */
+    AssetCache.Asset get(String urlPath) {
+        return assets.get(urlPath);
+    }
+
+    /** Every URL path the bundle holds. */
+    Set<String> paths() { return Collections.unmodifiableSet(assets.keySet()); }
+
+    Path file() { return file; }
+
+    int size() { return assets.size(); }
+
+    long bytes() { return bytes; }
+
+    /** Maps a bundle written by {@link #build}. The mapping lives as long as the returned bundle. */
+    static AssetBundle open(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Asset bundle too large to map: " + file);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int size = buf.capacity();
+        if (size < 8 + TRAILER || buf.getLong(0) != MAGIC || buf.getLong(size - 8) != MAGIC) {
+            throw new IOException("Not an asset bundle: " + file);
+        }
+        long index = buf.getLong(size - TRAILER);
+        if (index < 8 || index > size - TRAILER) throw new IOException("Corrupt asset bundle: " + file);
+
+        ByteBuffer in = buf.duplicate().position((int) index);
+        int count = in.getInt();
+        Map<String, AssetCache.Asset> assets = new HashMap<>(Math.max(16, count * 2));
+        Compression.Encoding[] encodings = Compression.Encoding.values();
+        for (int i = 0; i < count; i++) {
+            String path = readString(in);
+            String contentType = readString(in);
+            long mtime = in.getLong();
+            String tag = readString(in);
+            AssetCache.Variant[] variants = new AssetCache.Variant[encodings.length];
+            int n = in.get();
+            for (int v = 0; v < n; v++) {
+                Compression.Encoding enc = encodings[in.get()];
+                long offset = in.getLong();
+                long length = in.getLong();
+                if (offset < 8 || offset + length > index) throw new IOException("Corrupt asset bundle entry " + path);
+                variants[enc.ordinal()] = new AssetCache.Variant(enc, buf.slice((int) offset, (int) length), tag);
+            }
+            AssetCache.Variant identity = variants[Compression.Encoding.IDENTITY.ordinal()];
+            if (identity == null) throw new IOException("Asset bundle entry without body: " + path);
+            assets.put(path, new AssetCache.Asset(contentType, mtime, tag, identity,
+                    variants[Compression.Encoding.GZIP.ordinal()], variants[Compression.Encoding.DEFLATE.ordinal()]));
+        }
+        return new AssetBundle(file, assets, size);
+    }
+
+    /**
+     * Packs the regular files under root into out (replaced atomically) and returns how many
+     * there are. Hidden files and directories are left out, as is the server/ sources
+     * directory at the top; compressed variants follow the same rules as the asset cache.
+     * Pages go in last, with their asset references rewritten to fingerprinted URLs
+     * ({@link HtmlRewriter}) using the fingerprints of what was bundled before them.
+     */
+    static int build(Path root, Path out, Function<Path, String> contentTypes) throws IOException {
+        Path absRoot = root.toAbsolutePath().normalize();
+        Path absOut = out.toAbsolutePath().normalize();
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(absRoot, new SimpleFileVisitor<>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(absRoot)) return FileVisitResult.CONTINUE;
+                String name = dir.getFileName().toString();
+                boolean skip = name.startsWith(".") || dir.equals(absRoot.resolve("server"));
+                return skip ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !f.getFileName().toString().startsWith(".") && !f.equals(absOut)) {
+                    files.add(f);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // everything a page can reference is written (and fingerprinted) before the pages
+        files.sort(Comparator.comparing((Path f) -> HtmlRewriter.isHtml(contentTypes.apply(f))).thenComparing(Comparator.naturalOrder()));
+        Map<String, Written> written = new HashMap<>();
+
+        Path tmp = absOut.resolveSibling(absOut.getFileName() + ".tmp");
+        List<byte[]> manifest = new ArrayList<>(files.size());
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            data.writeLong(MAGIC);
+            for (Path f : files) {
+                byte[] body = Files.readAllBytes(f);
+                long mtime = Files.getLastModifiedTime(f).toMillis();
+                String path = urlPath(absRoot, f);
+                String type = contentTypes.apply(f);
+                if (HtmlRewriter.isHtml(type)) {
+                    long[] newest = {mtime};
+                    body = HtmlRewriter.rewrite(body, path, ref -> {
+                        Written w = written.get(ref);
+                        if (w == null) return null;
+                        newest[0] = Math.max(newest[0], w.lastModifiedMillis);
+                        return w.fingerprint;
+                    });
+                    mtime = newest[0];
+                }
+                AssetCache.Asset asset = new AssetCache.Asset(f, body, type, mtime, true);
+
+                List<AssetCache.Variant> variants = new ArrayList<>(3);
+                for (Compression.Encoding enc : Compression.Encoding.values()) {
+                    AssetCache.Variant v = asset.select(enc);
+                    if (v.encoding == enc) variants.add(v);
+                }
+                ManifestWriter entry = new ManifestWriter();
+                entry.writeString(path);
+                entry.writeString(asset.contentType);
+                entry.out.writeLong(mtime);
+                entry.writeString(asset.etag.substring(1, asset.etag.length() - 1));
+                entry.out.writeByte(variants.size());
+                for (AssetCache.Variant v : variants) {
+                    if ((long) data.size() + v.data.length >= Integer.MAX_VALUE) {
+                        throw new IOException("Site too large for one asset bundle");
+                    }
+                    entry.out.writeByte(v.encoding.ordinal());
+                    entry.out.writeLong(data.size());
+                    entry.out.writeLong(v.data.length);
+                    data.write(v.data);
+                }
+                manifest.add(entry.toByteArray());
+                written.put(path, new Written(asset.fingerprint, asset.lastModifiedMillis));
+            }
+            long index = data.size();
+            data.writeInt(manifest.size());
+            for (byte[] entry : manifest) data.write(entry);
+            data.writeLong(index);
+            data.writeLong(MAGIC);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        // a server still mapping the old bundle keeps its (unlinked) copy
+        Files.move(tmp, absOut, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return files.size();
+    }
+
+    /** What a page rewritten later needs to know about an asset already in the bundle. */
+    private record Written(String fingerprint, long lastModifiedMillis) { }
+
+    /** "/" + the path relative to root with forward slashes, as it appears in request URIs. */
+    private static String urlPath(Path root, Path file) {
+        StringBuilder sb = new StringBuilder();
+        for (Path part : root.relativize(file)) sb.append('/').append(part);
+        return sb.toString();
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        byte[] b = new byte[len];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static final class ManifestWriter {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        void writeString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        byte[] toByteArray() { return bytes.toByteArray(); }
+    }
+
+    /**
+     * {@code java -cp blog-server.jar blog.server.AssetBundle [--root ..] [--out site.bundle]};
+     * then run the server with ASSET_BUNDLE pointing at the output.
+     */
+    public static void main(String[] args) throws IOException {
+        LoadGen.Args a = LoadGen.Args.parse(args);
+        String given = a.value("root", null);
+        Path root = given != null ? Path.of(given) : Main.resolveSiteRoot();
+        Path out = Path.of(a.value("out", "site.bundle"));
+        long t = System.nanoTime();
+        int n = build(root, out, Main.StaticHandler::contentType);
+        System.out.printf("Bundled %d files from %s into %s (%d KiB) in %d ms%n", n, root.toAbsolutePath().normalize(),
+                out, Files.size(out) / 1024, (System.nanoTime() - t) / 1_000_000);
+    }
+}
@@ -0,0 +1,389 @@
+package blog.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Byte-budget LRU cache of static files under the site root.
+ * Each entry keeps the file bytes plus precomputed headers (content type, length,
+ * strong ETag, Last-Modified) and, for compressible types, gzip/deflate variants
+ * built once at load time, so a cache hit costs no filesystem calls or compression.
+ * Files at or above the streaming threshold keep only their metadata (and a content
+ * hash computed once per change) here and are streamed from disk by the handler.
+ * Entries are invalidated by a WatchService on the site root; if watching is not
+ * available, entries are revalidated against the file's mtime instead.
+ * {@link AssetBundle} builds the same Asset/Variant objects over a mapped bundle file.
+ * Every invalidation bumps {@link #generation()}, so anything derived from several
+ * entries (see {@link HtmlRewriter}) can tell cheaply whether it may be stale.
+ */
+final class AssetCache {
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    /** Hex digits of the content hash that go into fingerprinted URLs. */
+    static final int FINGERPRINT_LENGTH = 10;
+
+    /** One encoded representation of an asset (identity, gzip or deflate). */
+    static final class Variant {
+        final Compression.Encoding encoding;
+        /** Null for streamed and bundled assets. */
+        final byte[] data;
+        /** The bytes inside a mapped {@link AssetBundle}; null otherwise. */
+        final ByteBuffer mapped;
+        final long length;
+        final String etag;
+
+        Variant(Compression.Encoding encoding, byte[] data, long length, String baseTag) {
+            this.encoding = encoding;
+            this.data = data;
+            this.mapped = null;
+            this.length = length;
+            this.etag = '"' + baseTag + encoding.etagSuffix + '"';
+        }
+
+        Variant(Compression.Encoding encoding, ByteBuffer mapped, String baseTag) {
+            this.encoding = encoding;
+            this.data = null;
+            this.mapped = mapped;
+            this.length = mapped.remaining();
+            this.etag = '"' + baseTag + encoding.etagSuffix + '"';
+        }
+    }
+
+    static final class Asset {
+        /** Bodies smaller than this are not worth a compressed variant. */
+        private static final int MIN_COMPRESS_BYTES = 256;
+
+        /** Null for assets at or above the streaming threshold (served from {@link #file}) and bundled ones. */
+        final byte[] data;
+        /** Null for bundled assets. */
+        final Path file;
+        final String contentType;
+        final long length;
+        final long lastModifiedMillis;
+        final String lastModified;
+        final String etag;
+        /** Short content hash for fingerprinted URLs; see {@link HtmlRewriter}. */
+        final String fingerprint;
+        final boolean compressible;
+        private final Variant identity;
+        private final Variant gzip;
+        private final Variant deflate;
+
+        Asset(Path file, byte[] data, String contentType, long lastModifiedMillis, boolean buildVariants) {
+            this.data = data;
+            this.file = file;
+            this.contentType = contentType;
+            this.length = data.length;
+            // HTTP dates have second precision; truncate so If-Modified-Since compares cleanly
+            this.lastModifiedMillis = (lastModifiedMillis / 1000) * 1000;
+            this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(this.lastModifiedMillis));
+            String tag = sha256Hex(data, 16);
+            this.etag = '"' + tag + '"';
+            this.fingerprint = tag.substring(0, FINGERPRINT_LENGTH);
+            this.compressible = Compression.compressible(contentType);
+            this.identity = new Variant(Compression.Encoding.IDENTITY, data, length, tag);
+            boolean build = buildVariants && compressible && data.length >= MIN_COMPRESS_BYTES;
+            this.gzip = build ? worthIt(Compression.Encoding.GZIP, tag) : null;
+            this.deflate = build ? worthIt(Compression.Encoding.DEFLATE, tag) : null;
+        }
+
+        /** Metadata-only asset for large files; tag is the content hash {@link #sha256Hex(Path, int)} streamed over the file. */
+        Asset(Path file, long size, String contentType, long lastModifiedMillis, String tag) {
+            this.data = null;
+            this.file = file;
+            this.contentType = contentType;
+            this.length = size;
+            this.lastModifiedMillis = (lastModifiedMillis / 1000) * 1000;
+            this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(this.lastModifiedMillis));
+            this.etag = '"' + tag + '"';
+            // a content hash like the in-memory assets', so every instance and deploy names the same bytes alike
+            this.fingerprint = tag.substring(0, FINGERPRINT_LENGTH);
+            this.compressible = false;
+            this.identity = new Variant(Compression.Encoding.IDENTITY, null, size, tag);
+            this.gzip = null;
+            this.deflate = null;
+        }
+
+        /** Asset from a bundle; its tag and compressed variants were computed when the bundle was built. */
+        Asset(String contentType, long lastModifiedMillis, String tag, Variant identity, Variant gzip, Variant deflate) {
+            this.data = null;
+            this.file = null;
+            this.contentType = contentType;
+            this.length = identity.length;
+            this.lastModifiedMillis = (lastModifiedMillis / 1000) * 1000;
+            this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(this.lastModifiedMillis));
+            this.etag = '"' + tag + '"';
+            this.fingerprint = tag.substring(0, FINGERPRINT_LENGTH);
+            this.compressible = Compression.compressible(contentType);
+            this.identity = identity;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+
+        private Variant worthIt(Compression.Encoding encoding, String tag) {
+            byte[] encoded = Compression.encode(data, encoding);
+            // keep a compressed copy only if it saves at least ~10%
+            if (encoded.length >= data.length - data.length / 10) return null;
+            return new Variant(encoding, encoded, encoded.length, tag);
+        }
+
+        boolean streamed() {
+            return data == null && identity.mapped == null;
+        }
+
+        /** Best available representation for the negotiated encoding; identity as fallback. */
+        Variant select(Compression.Encoding encoding) {
+            if (encoding == Compression.Encoding.GZIP && gzip != null) return gzip;
+            if (encoding == Compression.Encoding.DEFLATE && deflate != null) return deflate;
+            return identity;
+        }
+
+        /** Rough heap footprint used for the byte budget. */
+        long weight() {
+            long w = (data == null ? 0 : length) + 256;
+            if (gzip != null) w += gzip.data.length;
+            if (deflate != null) w += deflate.data.length;
+            return w;
+        }
+    }
+
+    private final Path root;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long streamMinBytes;
+    private final Function<Path, String> contentTypes;
+    private final Map<Path, Asset> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes = 0;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean watching = false;
+
+    AssetCache(Path root, long maxBytes, long maxEntryBytes, long streamMinBytes, Function<Path, String> contentTypes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.streamMinBytes = streamMinBytes;
+        this.contentTypes = contentTypes;
+    }
+
+    /** Returns the asset for a regular file under the root, or null if it does not exist. */
+    Asset get(Path file) throws IOException {
+        Asset cached;
+        synchronized (this) {
+            cached = entries.get(file);
+        }
+        if (cached != null) {
+            if (watching) return cached;
+            // no watcher: one stat to make sure the entry is still current
+            if (Files.isRegularFile(file)
+                    && Files.getLastModifiedTime(file).toMillis() / 1000 * 1000 == cached.lastModifiedMillis
+                    && Files.size(file) == cached.length) {
+                return cached;
+            }
+            invalidate(file);
+        }
+
+        // taken before the read: if the file changes while we read it, the watcher's
+        // invalidation lands before our put, and the stale bytes must not be cached after it
+        long readGeneration = generation();
+        if (!Files.isRegularFile(file)) return null;
+        long mtime = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        if (size >= streamMinBytes) {
+            // large files are streamed from disk; only their metadata is cached, hashed once per change
+            Asset meta = new Asset(file, size, contentTypes.apply(file), mtime, sha256Hex(file, 16));
+            putIfUnchanged(file, meta, readGeneration);
+            return meta;
+        }
+        byte[] data = Files.readAllBytes(file);
+        // compressed variants are only worth building for entries that will stay cached
+        boolean cacheable = data.length + 256L <= maxEntryBytes;
+        Asset asset = new Asset(file, data, contentTypes.apply(file), mtime, cacheable);
+        if (cacheable && asset.weight() <= maxBytes) {
+            putIfUnchanged(file, asset, readGeneration);
+        }
+        return asset;
+    }
+
+    synchronized void invalidate(Path file) {
+        generation.incrementAndGet();
+        Asset old = entries.remove(file);
+        if (old != null) usedBytes -= old.weight();
+    }
+
+    synchronized void invalidateUnder(Path dir) {
+        // counted even when nothing was cached under dir: the change may still matter to a derived page
+        generation.incrementAndGet();
+        Iterator<Map.Entry<Path, Asset>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Asset> e = it.next();
+            if (e.getKey().startsWith(dir)) {
+                usedBytes -= e.getValue().weight();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /** Incremented on every invalidation; LRU evictions don't count since the files didn't change. */
+    long generation() {
+        return generation.get();
+    }
+
+    /** True while the file watcher keeps entries current without per-request checks. */
+    boolean watching() {
+        return watching;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Caches the asset unless something was invalidated since readGeneration. That may
+     * have been another file, which costs one extra load later; caching a read that raced
+     * a change would serve the old bytes until the file changed again.
+     */
+    private synchronized void putIfUnchanged(Path file, Asset asset, long readGeneration) {
+        if (generation.get() != readGeneration) return;
+        Asset old = entries.put(file, asset);
+        if (old != null) usedBytes -= old.weight();
+        usedBytes += asset.weight();
+        Iterator<Asset> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Asset eldest = it.next();
+            usedBytes -= eldest.weight();
+            it.remove();
+        }
+    }
+
+    /**
+     * Starts a daemon thread that invalidates entries when files under the root change.
+     * Returns false (and keeps mtime revalidation) if the platform cannot watch the tree.
+     */
+    boolean startWatching() {
+        WatchService ws;
+        Map<WatchKey, Path> keys = new LinkedHashMap<>();
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+            registerTree(ws, root, keys);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Asset cache: file watching unavailable (" + e.getMessage() + "), using mtime checks");
+            return false;
+        }
+
+        Thread t = new Thread(() -> watchLoop(ws, keys), "asset-cache-watcher");
+        t.setDaemon(true);
+        t.start();
+        watching = true;
+        return true;
+    }
+
+    private void watchLoop(WatchService ws, Map<WatchKey, Path> keys) {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Path dir = keys.get(key);
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (ev.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        invalidateAll();
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) ev.context()).normalize();
+                    invalidateUnder(changed);
+                    if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try {
+                            registerTree(ws, changed, keys);
+                        } catch (IOException e) {
+                            // new directory can't be watched: fall back to a full flush
+                            invalidateAll();
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                    if (dir != null) invalidateUnder(dir);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            watching = false;
+            invalidateAll();
+        }
+    }
+
+    private static void registerTree(WatchService ws, Path start, Map<WatchKey, Path> keys) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                if (!dir.equals(start) && name.startsWith(".")) return FileVisitResult.SKIP_SUBTREE;
+                WatchKey key = dir.register(ws,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static String sha256Hex(byte[] data, int bytes) {
+        MessageDigest md = sha256();
+        return hex(md.digest(data), bytes);
+    }
+
+    /** Same as {@link #sha256Hex(byte[], int)} over a file's content, read in chunks rather than all at once. */
+    static String sha256Hex(Path file, int bytes) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n; (n = in.read(buf)) > 0; ) md.update(buf, 0, n);
+        }
+        return hex(md.digest(), bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] d, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes && i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(d[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
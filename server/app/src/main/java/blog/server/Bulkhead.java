@@ -0,0 +1,57 @@
+package blog.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit plus bounded wait queue for one class of routes.
+ * Up to maxConcurrent requests run at once, up to maxQueue more wait for a slot;
+ * anything beyond that is rejected immediately so latency can't grow without bound.
+ */
+final class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final Semaphore permits;
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    Bulkhead(String name, int maxConcurrent, int maxQueue, long queueTimeoutMillis) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Takes a slot, waiting in the queue if needed. Returns false if the queue is full
+     * or the wait timed out; the caller must call {@link #release()} only after true.
+     */
+    boolean acquire() throws InterruptedException {
+        int n = admitted.incrementAndGet();
+        if (n > maxConcurrent + maxQueue) {
+            admitted.decrementAndGet();
+            return false;
+        }
+        boolean ok = false;
+        try {
+            ok = permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!ok) admitted.decrementAndGet();
+        }
+        return ok;
+    }
+
+    void release() {
+        permits.release();
+        admitted.decrementAndGet();
+    }
+
+    String name() { return name; }
+
+    int inFlight() { return maxConcurrent - permits.availablePermits(); }
+
+    int queued() { return Math.max(0, admitted.get() - inFlight()); }
+}
@@ -0,0 +1,166 @@
+package blog.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * LRU + TTL cache of chat replies with single-flight loading: concurrent identical
+ * requests share one in-flight upstream call instead of each paying for it.
+ * Only successful replies are cached; failures are handed to every waiter and forgotten.
+ */
+final class ChatCache {
+    private static final class Entry {
+        final String reply;
+        final long expiresAt;
+
+        Entry(String reply, long expiresAt) {
+            this.reply = reply;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    ChatCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ChatCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached reply, joins an identical in-flight call, or starts one with the loader.
+     * Each caller gets its own copy of the shared future, so one caller cancelling doesn't
+     * affect the others.
+     */
+    CompletableFuture<String> getOrLoad(String key, Supplier<CompletableFuture<String>> loader) {
+        String cached = get(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+
+        misses.increment();
+        CompletableFuture<String> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((reply, err) -> {
+            if (err == null && reply != null) put(key, reply);
+            inFlight.remove(key, mine);
+            if (err != null) mine.completeExceptionally(err);
+            else mine.complete(reply);
+        });
+        return mine.copy();
+    }
+
+    private synchronized String get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) return null;
+        if (e.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return e.reply;
+    }
+
+    private synchronized void put(String key, String reply) {
+        if (maxEntries == 0) return;
+        entries.put(key, new Entry(reply, System.currentTimeMillis() + ttlMillis));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long hits() { return hits.sum(); }
+
+    long misses() { return misses.sum(); }
+
+    long coalesced() { return coalesced.sum(); }
+
+    Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("size", size());
+        out.put("hits", hits.sum());
+        out.put("misses", misses.sum());
+        out.put("coalesced", coalesced.sum());
+        out.put("inFlight", inFlight.size());
+        return out;
+    }
+
+    /**
+     * Cache key: SHA-256 over the model, the normalized message and the normalized
+     * history turns (role + text) that are actually sent upstream.
+     */
+    static String key(String model, String message, List<String[]> history) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            update(md, model);
+            for (String[] turn : history) {
+                update(md, turn[0]);
+                update(md, normalize(turn[1]));
+            }
+            update(md, normalize(message));
+            byte[] d = md.digest();
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Case-insensitive, whitespace-collapsed form so "Hi " and "hi" share an entry. */
+    static String normalize(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static void update(MessageDigest md, String s) {
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+}
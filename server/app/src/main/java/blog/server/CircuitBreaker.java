@@ -0,0 +1,127 @@
+package blog.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fails fast while an upstream is down instead of letting every request wait out its
+ * timeout. After failureThreshold consecutive failures the breaker opens and rejects
+ * calls for openMillis; then it lets a single probe through (half-open). The probe's
+ * success closes the breaker, its failure opens it for another period.
+ *
+ * Every call admitted by {@link #tryAcquire()} gets a {@link Permit} and reports back
+ * exactly once through {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+ * Only the probe's permit can close or reopen a half-open breaker, and a result is
+ * counted only if the breaker hasn't changed state since the call was admitted: a slow
+ * call that started before the breaker opened (or closed) says nothing about what the
+ * upstream is doing now.
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Admission of one call: the state period it was admitted in, and whether it is the half-open probe. */
+    static final class Permit {
+        private final long epoch;
+        private final boolean probe;
+
+        private Permit(long epoch, boolean probe) {
+            this.epoch = epoch;
+            this.probe = probe;
+        }
+    }
+
+    private static final long CLOSED_MARK = Long.MIN_VALUE;
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // System.nanoTime when the breaker last opened, or CLOSED_MARK
+    private final AtomicLong openedAt = new AtomicLong(CLOSED_MARK);
+    // bumped on every open, reopen and close
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final LongAdder rejected = new LongAdder();
+
+    /** A failureThreshold of 0 disables the breaker. */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+    }
+
+    /** The permit for a call that may go ahead; null means fail fast. */
+    Permit tryAcquire() {
+        long e = epoch.get();
+        long opened = openedAt.get();
+        if (opened == CLOSED_MARK) return new Permit(e, false);
+        if (System.nanoTime() - opened >= openNanos && probing.compareAndSet(false, true)) {
+            return new Permit(epoch.get(), true);
+        }
+        rejected.increment();
+        return null;
+    }
+
+    void onSuccess(Permit permit) {
+        if (permit.probe) {
+            consecutiveFailures.set(0);
+            openedAt.set(CLOSED_MARK);
+            epoch.incrementAndGet();
+            probing.set(false);
+        } else if (epoch.get() == permit.epoch) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    void onFailure(Permit permit) {
+        if (permit.probe) {
+            // failed probe: stay open for another period
+            openedAt.set(System.nanoTime());
+            epoch.incrementAndGet();
+            probing.set(false);
+            return;
+        }
+        if (failureThreshold <= 0 || epoch.get() != permit.epoch) return;
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold
+                && openedAt.compareAndSet(CLOSED_MARK, System.nanoTime())) {
+            epoch.incrementAndGet();
+        }
+    }
+
+    /** The call ended without saying anything about the upstream (cancelled, or our own bad request). */
+    void onIgnored(Permit permit) {
+        // a probe that told us nothing frees the slot for the next one
+        if (permit.probe) probing.set(false);
+    }
+
+    State state() {
+        long opened = openedAt.get();
+        if (opened == CLOSED_MARK) return State.CLOSED;
+        return System.nanoTime() - opened >= openNanos ? State.HALF_OPEN : State.OPEN;
+    }
+
+    /** Time until a probe will be let through; 0 when closed or half-open. */
+    long retryAfterMillis() {
+        long opened = openedAt.get();
+        if (opened == CLOSED_MARK) return 0;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(opened + openNanos - System.nanoTime()));
+    }
+
+    long rejected() { return rejected.sum(); }
+
+    /** The breaker rejected the call; thrown directly or inside a failed future. */
+    static final class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        OpenException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        long retryAfterMillis() { return retryAfterMillis; }
+    }
+}
@@ -0,0 +1,116 @@
+package blog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Accept-Encoding negotiation and gzip/deflate encoding for response bodies.
+ */
+final class Compression {
+    private Compression() {}
+
+    enum Encoding {
+        IDENTITY(null, ""),
+        GZIP("gzip", "-gz"),
+        DEFLATE("deflate", "-df");
+
+        /** Value for the Content-Encoding header, null for identity. */
+        final String token;
+        /** Suffix appended inside the ETag quotes so each representation has its own tag. */
+        final String etagSuffix;
+
+        Encoding(String token, String etagSuffix) {
+            this.token = token;
+            this.etagSuffix = etagSuffix;
+        }
+    }
+
+    /**
+     * Picks the best encoding the client accepts. gzip is preferred over deflate
+     * at equal q-values since some old clients got raw vs zlib deflate wrong.
+     */
+    static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) return Encoding.IDENTITY;
+        double gzip = -1, deflate = -1, star = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            String coding = p;
+            double q = 1.0;
+            int semi = p.indexOf(';');
+            if (semi >= 0) {
+                coding = p.substring(0, semi).trim();
+                String param = p.substring(semi + 1).trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try { q = Double.parseDouble(param.substring(2).trim()); } catch (NumberFormatException e) { q = 0; }
+                }
+            }
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) gzip = Math.max(gzip, q);
+            else if (coding.equalsIgnoreCase("deflate")) deflate = Math.max(deflate, q);
+            else if (coding.equals("*")) star = q;
+        }
+        if (gzip < 0) gzip = star;
+        if (deflate < 0) deflate = star;
+        if (gzip > 0 && gzip >= deflate) return Encoding.GZIP;
+        if (deflate > 0) return Encoding.DEFLATE;
+        return Encoding.IDENTITY;
+    }
+
+    /** Text-like types compress well; raster images and archives are already compressed. */
+    static boolean compressible(String contentType) {
+        if (contentType == null) return false;
+        String ct = contentType.toLowerCase();
+        return ct.startsWith("text/")
+                || ct.startsWith("application/javascript")
+                || ct.startsWith("application/json")
+                || ct.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Wraps a response stream so the body is compressed as it is written.
+     * Closing the returned stream finishes the encoding and closes out.
+     */
+    static OutputStream wrap(OutputStream out, Encoding encoding) throws IOException {
+        return switch (encoding) {
+            case GZIP -> new GZIPOutputStream(out, 8192);
+            case DEFLATE -> new DeflaterOutputStream(out);
+            case IDENTITY -> out;
+        };
+    }
+
+    static byte[] encode(byte[] data, Encoding encoding) {
+        return encode(data, 0, data.length, encoding);
+    }
+
+    static byte[] encode(byte[] data, int off, int len, Encoding encoding) {
+        if (encoding == Encoding.IDENTITY) {
+            byte[] copy = new byte[len];
+            System.arraycopy(data, off, copy, 0, len);
+            return copy;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, len / 3));
+        try {
+            if (encoding == Encoding.GZIP) {
+                try (GZIPOutputStream gz = new GZIPOutputStream(baos, 8192)) {
+                    gz.write(data, off, len);
+                }
+            } else {
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                try (DeflaterOutputStream df = new DeflaterOutputStream(baos, deflater, 8192)) {
+                    df.write(data, off, len);
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (IOException e) {
+            // in-memory streams don't fail
+            throw new UncheckedIOException(e);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,219 @@
+package blog.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Google Gemini through its REST API: generateContent for whole replies,
+ * streamGenerateContent with alt=sse for streamed ones. baseUrl is normally
+ * https://generativelanguage.googleapis.com/v1beta, or a {@link StubUpstream} in tests.
+ */
+final class GeminiProvider implements LlmProvider {
+    private static final Content SYSTEM_INSTRUCTION = new Content(null, List.of(new Part(
+            "Bạn là trợ lý AI cho blog cá nhân của Đoàn Minh Quân. " +
+            "Trả lời ngắn gọn, rõ ràng, ưu tiên Java 22/JavaScript, học tập và dự án. " +
+            "Không hướng dẫn hành vi trái phép (hack/âm mưu).")));
+    private static final GenerationConfig GENERATION_CONFIG = new GenerationConfig(0.6, 512);
+    private static final Json.Path TEXT = Json.Path.compile("candidates[0].content.parts[*].text");
+
+    private final HttpClient http;
+    private final String model;
+    // built once: the key and model don't change for the provider's lifetime
+    private final URI generateUri;
+    private final URI streamUri;
+    private final RequestTemplate template = new RequestTemplate(SYSTEM_INSTRUCTION, GENERATION_CONFIG);
+    private final LatencyHistogram encodeTime;
+    private final LatencyHistogram decodeTime;
+
+    /** encodeTime and decodeTime receive the JSON encode / reply extraction time of each call. */
+    GeminiProvider(HttpClient http, String baseUrl, String model, String apiKey,
+                   LatencyHistogram encodeTime, LatencyHistogram decodeTime) {
+        this.http = http;
+        this.model = model;
+        this.generateUri = URI.create(endpoint(baseUrl, model, apiKey, "generateContent", null));
+        this.streamUri = URI.create(endpoint(baseUrl, model, apiKey, "streamGenerateContent", "alt=sse"));
+        this.encodeTime = encodeTime;
+        this.decodeTime = decodeTime;
+    }
+
+    @Override public String name() {
+        return "gemini:" + model;
+    }
+
+    @Override public CompletableFuture<String> generate(String message, List<String[]> turns, long deadlineNanos) {
+        long budget = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (budget <= 0) return CompletableFuture.failedFuture(new TimeoutException("deadline exceeded"));
+        RequestTemplate.Body payload = encode("generateContent", message, turns);
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(generateUri)
+                .timeout(Duration.ofMillis(budget))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(RequestTemplate.publisher(payload))
+                .build();
+
+        JfrEvents.UpstreamCall event = new JfrEvents.UpstreamCall();
+        event.begin();
+        CompletableFuture<HttpResponse<String>> sent = http.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        sent.whenComplete((resp, err) -> commit(event, "generateContent", payload.length(), resp,
+                resp == null ? -1 : resp.body().length(), err));
+        CompletableFuture<String> reply = sent.thenApply(resp -> {
+            if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                throw new CompletionException(
+                        new UpstreamException("Gemini API lỗi (" + resp.statusCode() + ").", resp.statusCode(), resp.body()));
+            }
+            String text = extractText(resp.body());
+            if (text == null || text.isBlank()) {
+                throw new CompletionException(
+                        new UpstreamException("Không lấy được nội dung trả lời từ Gemini.", 0, resp.body()));
+            }
+            return text;
+        });
+        // a cancelled reply (e.g. the losing hedge) aborts the HTTP exchange too
+        reply.whenComplete((r, err) -> {
+            if (reply.isCancelled()) sent.cancel(true);
+        });
+        return reply;
+    }
+
+    @Override public TextStream stream(String message, List<String[]> turns, long timeoutMillis)
+            throws IOException, InterruptedException, UpstreamException {
+        RequestTemplate.Body payload = encode("streamGenerateContent", message, turns);
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(streamUri)
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .header("Accept", "text/event-stream")
+                .POST(RequestTemplate.publisher(payload))
+                .build();
+
+        JfrEvents.UpstreamCall event = new JfrEvents.UpstreamCall();
+        event.begin();
+        HttpResponse<InputStream> resp;
+        try {
+            resp = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException | InterruptedException e) {
+            commit(event, "streamGenerateContent", payload.length(), null, -1, e);
+            throw e;
+        }
+        commit(event, "streamGenerateContent", payload.length(), resp, -1, null);
+        InputStream body = resp.body();
+        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+            try (body) {
+                String raw = new String(body.readNBytes(64 * 1024), StandardCharsets.UTF_8);
+                throw new UpstreamException("Gemini API lỗi (" + resp.statusCode() + ").", resp.statusCode(), raw);
+            }
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return new TextStream() {
+            @Override public String next() throws IOException {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("data:")) continue;
+                    String text = extractText(line.substring(5).trim());
+                    if (text != null && !text.isEmpty()) return text;
+                }
+                return null;
+            }
+
+            @Override public void close() throws IOException {
+                // closing the body before the end cancels the Gemini request
+                body.close();
+            }
+        };
+    }
+
+    /** Only the conversation text is encoded here; the rest of the body comes from the template. */
+    private RequestTemplate.Body encode(String call, String message, List<String[]> turns) {
+        JfrEvents.UpstreamEncode event = new JfrEvents.UpstreamEncode();
+        event.begin();
+        long t = System.nanoTime();
+        RequestTemplate.Body body = template.body(message, turns);
+        encodeTime.recordNanos(System.nanoTime() - t);
+        event.end();
+        if (event.shouldCommit()) {
+            event.call = call;
+            event.bytes = body.length();
+            event.turns = turns.size();
+            event.commit();
+        }
+        return body;
+    }
+
+    private static void commit(JfrEvents.UpstreamCall event, String call, long requestBytes, HttpResponse<?> resp,
+                               long responseChars, Throwable err) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.call = call;
+        event.status = resp == null ? -1 : resp.statusCode();
+        event.requestBytes = requestBytes;
+        event.responseChars = responseChars;
+        event.outcome = err != null ? err.getClass().getSimpleName()
+                : resp.statusCode() >= 200 && resp.statusCode() < 300 ? "ok" : "http error";
+        event.commit();
+    }
+
+    private static String endpoint(String baseUrl, String model, String apiKey, String method, String extraQuery) {
+        String endpoint = baseUrl + "/models/" + urlEncode(model) + ":" + method + "?key=" + urlEncode(apiKey);
+        return extraQuery == null ? endpoint : endpoint + "&" + extraQuery;
+    }
+
+    /**
+     * Joins the text of every part of the first candidate. Only that path is materialized;
+     * safety ratings, usage metadata and other candidates are skipped by the scanner.
+     */
+    private String extractText(String json) {
+        JfrEvents.UpstreamDecode event = new JfrEvents.UpstreamDecode();
+        event.begin();
+        long t = System.nanoTime();
+        String result = null;
+        try {
+            StringBuilder sb = null;
+            for (Object part : Json.select(json, TEXT)) {
+                if (!(part instanceof String text)) continue;
+                if (sb == null) sb = new StringBuilder(text.length());
+                sb.append(text);
+            }
+            result = sb == null ? null : sb.toString();
+            return result;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            decodeTime.recordNanos(System.nanoTime() - t);
+            event.end();
+            if (event.shouldCommit()) {
+                event.responseChars = json.length();
+                event.textChars = result == null ? -1 : result.length();
+                event.commit();
+            }
+        }
+    }
+
+    private static String urlEncode(String s) {
+        return URLEncoder.encode(s == null ? "" : s, StandardCharsets.UTF_8);
+    }
+
+    // Request shapes. RequestTemplate encodes them once with Json to cut its fragments;
+    // null components are left out of the output.
+
+    record GeminiRequest(Content systemInstruction, List<Content> contents, GenerationConfig generationConfig) { }
+
+    record Content(String role, List<Part> parts) { }
+
+    record Part(String text) { }
+
+    record GenerationConfig(double temperature, int maxOutputTokens) { }
+}
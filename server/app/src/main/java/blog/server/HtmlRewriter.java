@@ -0,0 +1,211 @@
+package blog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-hash fingerprinted asset URLs, and the HTML rewrite that points pages at them.
+ *
+ * A fingerprinted URL carries the asset's {@link AssetCache.Asset#fingerprint} before the
+ * extension: /img/Picture1.png is also served as /img/Picture1.3f9a0c12be.png. That URL
+ * changes whenever the content does, so the handler can let browsers keep it for a year
+ * as immutable and a repeat visit fetches nothing but the page itself.
+ *
+ * Pages get their src, href and poster attributes rewritten to those URLs. Links to other
+ * pages, external URLs and references to files that don't exist are left as they are.
+ * Rewritten pages are kept per file and rebuilt when the page or any asset it references
+ * changes; while the asset cache's file watcher runs, checking that is one counter read.
+ */
+final class HtmlRewriter {
+    private static final Pattern REFERENCE = Pattern.compile(
+            "(?i)(\\s(?:src|href|poster)\\s*=\\s*)(?:\"([^\"]*)\"|'([^']*)')");
+
+    /** A rewritten page, the fingerprints it was built with, and the cache generation they were last checked at. */
+    private record Page(String sourceTag, AssetCache.Asset rewritten, Map<String, String> deps, long generation) { }
+
+    private final Path root;
+    private final AssetCache cache;
+    private final ConcurrentHashMap<Path, Page> pages = new ConcurrentHashMap<>();
+
+    HtmlRewriter(Path root, AssetCache cache) {
+        this.root = root;
+        this.cache = cache;
+    }
+
+    /** source with its asset references fingerprinted; source itself if it isn't an HTML page held in memory. */
+    AssetCache.Asset rewrite(Path file, String urlPath, AssetCache.Asset source) throws IOException {
+        if (source.data == null || !isHtml(source.contentType)) return source;
+        // read before looking at the deps, so a change made meanwhile forces another check next time
+        long generation = cache.generation();
+        Page page = pages.get(file);
+        if (page != null && page.sourceTag.equals(source.etag)) {
+            if (page.generation == generation && cache.watching()) return page.rewritten;
+            if (unchanged(page.deps)) {
+                pages.put(file, new Page(page.sourceTag, page.rewritten, page.deps, generation));
+                return page.rewritten;
+            }
+        }
+
+        Map<String, String> deps = new HashMap<>();
+        long[] newest = {source.lastModifiedMillis};
+        byte[] html;
+        try {
+            html = rewrite(source.data, urlPath, path -> {
+                AssetCache.Asset a;
+                try {
+                    a = asset(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (a == null) return null;
+                deps.put(path, a.fingerprint);
+                newest[0] = Math.max(newest[0], a.lastModifiedMillis);
+                return a.fingerprint;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // Last-Modified moves with the newest asset too, since the page bytes changed with it
+        AssetCache.Asset rewritten = html == source.data
+                ? source
+                : new AssetCache.Asset(file, html, source.contentType, newest[0], true);
+        pages.put(file, new Page(source.etag, rewritten, Map.copyOf(deps), generation));
+        return rewritten;
+    }
+
+    private boolean unchanged(Map<String, String> deps) throws IOException {
+        for (Map.Entry<String, String> dep : deps.entrySet()) {
+            AssetCache.Asset a = asset(dep.getKey());
+            if (a == null || !a.fingerprint.equals(dep.getValue())) return false;
+        }
+        return true;
+    }
+
+    private AssetCache.Asset asset(String urlPath) throws IOException {
+        Path target = root.resolve(urlPath.substring(1)).normalize();
+        if (!target.startsWith(root)) return null;
+        return cache.get(target);
+    }
+
+    /**
+     * Rewrites the asset references in a page served at pageUrlPath. fingerprints maps a
+     * decoded absolute URL path to its fingerprint, or null to leave the reference alone.
+     * Returns html itself when nothing was rewritten.
+     */
+    static byte[] rewrite(byte[] html, String pageUrlPath, Function<String, String> fingerprints) {
+        String text = new String(html, StandardCharsets.UTF_8);
+        Matcher m = REFERENCE.matcher(text);
+        StringBuilder out = null;
+        int last = 0;
+        while (m.find()) {
+            boolean doubleQuoted = m.group(2) != null;
+            String value = doubleQuoted ? m.group(2) : m.group(3);
+            String replaced = fingerprinted(value, pageUrlPath, fingerprints);
+            if (replaced == null) continue;
+            if (out == null) out = new StringBuilder(text.length() + 256);
+            char q = doubleQuoted ? '"' : '\'';
+            out.append(text, last, m.start()).append(m.group(1)).append(q).append(replaced).append(q);
+            last = m.end();
+        }
+        if (out == null) return html;
+        out.append(text, last, text.length());
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The reference with its fingerprint inserted, or null if it doesn't point at a local asset. */
+    private static String fingerprinted(String ref, String pageUrlPath, Function<String, String> fingerprints) {
+        if (ref.isEmpty() || ref.startsWith("#") || ref.startsWith("//")) return null;
+        int end = ref.length();
+        boolean inPath = false;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+            // a scheme (https:, mailto:, data:) comes before any path separator
+            if (c == ':' && !inPath) return null;
+            if (c == '/') inPath = true;
+        }
+        String path = ref.substring(0, end);
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) return null;
+        String ext = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+        // pages are navigated to by their own URLs; only what they load gets fingerprinted
+        if (ext.equals("html") || ext.equals("htm")) return null;
+
+        String resolved = resolve(pageUrlPath, path);
+        if (resolved == null) return null;
+        String fp = fingerprints.apply(resolved);
+        if (fp == null) return null;
+        return path.substring(0, dot) + "." + fp + path.substring(dot) + ref.substring(end);
+    }
+
+    /** Absolute, percent-decoded path of ref relative to the page; null if it climbs above the root. */
+    private static String resolve(String pageUrlPath, String ref) {
+        String joined = ref.startsWith("/") ? ref : pageUrlPath.substring(0, pageUrlPath.lastIndexOf('/') + 1) + ref;
+        Deque<String> parts = new ArrayDeque<>();
+        for (String seg : joined.split("/")) {
+            if (seg.isEmpty() || seg.equals(".")) continue;
+            if (seg.equals("..")) {
+                if (parts.pollLast() == null) return null;
+                continue;
+            }
+            parts.addLast(seg);
+        }
+        StringBuilder sb = new StringBuilder(joined.length());
+        for (String seg : parts) sb.append('/').append(seg);
+        return percentDecode(sb.toString());
+    }
+
+    private static String percentDecode(String s) {
+        if (s.indexOf('%') < 0) return s;
+        ByteArrayOutputStream b = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length()
+                    && Character.digit(s.charAt(i + 1), 16) >= 0 && Character.digit(s.charAt(i + 2), 16) >= 0) {
+                b.write(Character.digit(s.charAt(i + 1), 16) << 4 | Character.digit(s.charAt(i + 2), 16));
+                i += 2;
+            } else {
+                byte[] raw = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                b.write(raw, 0, raw.length);
+            }
+        }
+        return b.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits "/img/Picture1.3f9a0c12be.png" into {"/img/Picture1.png", "3f9a0c12be"};
+     * null if the last path segment carries no fingerprint.
+     */
+    static String[] splitFingerprint(String urlPath) {
+        int slash = urlPath.lastIndexOf('/');
+        int dot = urlPath.lastIndexOf('.');
+        if (dot <= slash) return null;
+        int start = dot - AssetCache.FINGERPRINT_LENGTH;
+        if (start - 1 <= slash + 1 || urlPath.charAt(start - 1) != '.') return null;
+        for (int i = start; i < dot; i++) {
+            char c = urlPath.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return null;
+        }
+        return new String[]{urlPath.substring(0, start - 1) + urlPath.substring(dot), urlPath.substring(start, dot)};
+    }
+
+    static boolean isHtml(String contentType) {
+        return contentType.startsWith("text/html");
+    }
+}
@@ -0,0 +1,337 @@
+package blog.server;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downscaled copies of JPEG and PNG assets for ?w=&lt;width&gt;[&amp;q=&lt;quality&gt;], so a phone
+ * showing a thumbnail doesn't download the full-size picture.
+ *
+ * Widths and JPEG qualities come from fixed lists, which bounds how many variants one
+ * image can have. A variant is named after the source's fingerprint, so an edited image
+ * simply gets new variants. Each one is resized once: concurrent requests for the same
+ * variant share a single job, at most resizeConcurrency jobs run at a time, and the result
+ * goes to a file under dir. Those files are kept under a byte budget, least recently used
+ * deleted first, and served through their own {@link AssetCache} so hot variants stay in
+ * memory with their ETags and compressed forms like any other asset.
+ *
+ * The format stays that of the source; a width at or above the source's gets the original.
+ */
+final class ImageVariants {
+    /** Larger sources are served as they are rather than decoded (about 160 MB as ARGB). */
+    private static final long MAX_SOURCE_PIXELS = 40_000_000L;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final int[] widths;
+    private final int[] qualities;
+    private final int defaultQuality;
+    private final Semaphore jobs;
+    private final AssetCache files;
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // variants for which the source turned out no wider than asked (or not decodable): serve the original
+    private final Set<String> passThrough = ConcurrentHashMap.newKeySet();
+    // file name -> size, least recently used first; guarded by this
+    private final LinkedHashMap<String, Long> onDisk = new LinkedHashMap<>(64, 0.75f, true);
+    private long diskBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder resized = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    ImageVariants(Path dir, long maxBytes, int[] widths, int[] qualities, int defaultQuality, int resizeConcurrency,
+                  long memoryBytes) {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.widths = widths.clone();
+        this.qualities = qualities.clone();
+        this.defaultQuality = defaultQuality;
+        this.jobs = new Semaphore(Math.max(1, resizeConcurrency));
+        // variants are never modified in place, only created and evicted, so no watcher is needed
+        this.files = new AssetCache(this.dir, memoryBytes, memoryBytes, Long.MAX_VALUE, ImageVariants::contentType);
+        Arrays.sort(this.widths);
+        Arrays.sort(this.qualities);
+        // before any request can start a resize, so the temp files cleared here are all stale
+        loadIndex();
+    }
+
+    static boolean resizable(String contentType) {
+        return contentType.equals("image/jpeg") || contentType.equals("image/png");
+    }
+
+    /** Whether w (and q, when given) are on the allowed lists; the handler refuses anything else. */
+    boolean allowed(int width, int quality) {
+        return Arrays.binarySearch(widths, width) >= 0 && (quality < 0 || Arrays.binarySearch(qualities, quality) >= 0);
+    }
+
+    /**
+     * The variant of source at width (quality -1 for the default), resizing it on first
+     * use; source itself when it is no wider than that or cannot be decoded.
+     */
+    AssetCache.Asset get(AssetCache.Asset source, int width, int quality) throws IOException {
+        boolean png = source.contentType.equals("image/png");
+        // PNG is lossless; quality only names JPEG variants
+        int q = png ? 0 : (quality < 0 ? defaultQuality : quality);
+        String name = source.fingerprint + "-w" + width + (png ? ".png" : "-q" + q + ".jpg");
+        if (passThrough.contains(name)) return source;
+
+        Path file = dir.resolve(name);
+        AssetCache.Asset cached = files.get(file);
+        if (cached != null) {
+            touch(name);
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(name, mine);
+        if (running != null) {
+            coalesced.increment();
+        } else {
+            try {
+                mine.complete(resize(source, file, width, q, png));
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+            } finally {
+                inFlight.remove(name, mine);
+            }
+            running = mine;
+        }
+        Path result;
+        try {
+            result = running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+        if (result == null) {
+            passThrough.add(name);
+            return source;
+        }
+        AssetCache.Asset asset = files.get(result);
+        return asset != null ? asset : source;
+    }
+
+    /** Writes the variant to file and returns it, or null when the original should be served instead. */
+    private Path resize(AssetCache.Asset source, Path file, int width, int quality, boolean png) throws IOException {
+        jobs.acquireUninterruptibly();
+        try {
+            byte[] bytes = bytes(source);
+            BufferedImage image = decode(bytes, width);
+            if (image == null) return null;
+            int height = Math.max(1, Math.round(image.getHeight() * (float) width / image.getWidth()));
+            BufferedImage scaled = scale(image, width, height, png);
+            byte[] encoded = png ? encodePng(scaled) : encodeJpeg(scaled, quality / 100f);
+            // a downscale that came out bigger (small PNGs can) isn't worth sending
+            if (encoded.length >= bytes.length) return null;
+
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, ".resize-", ".tmp");
+            try {
+                Files.write(tmp, encoded);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            resized.increment();
+            added(file.getFileName().toString(), encoded.length);
+            return file;
+        } finally {
+            jobs.release();
+        }
+    }
+
+    /** Decodes the image, or returns null if it is already narrow enough, too large or unreadable. */
+    private static BufferedImage decode(byte[] bytes, int width) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // the header alone says whether decoding is needed, and is safe to decode
+                long w = reader.getWidth(0);
+                long h = reader.getHeight(0);
+                if (w <= width || w * h > MAX_SOURCE_PIXELS) return null;
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Halves with bilinear filtering while the image is more than twice the target, then
+     * finishes with bicubic: a single large bilinear step skips most source pixels and aliases.
+     */
+    private static BufferedImage scale(BufferedImage src, int width, int height, boolean keepAlpha) {
+        int type = keepAlpha && src.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = src;
+        int w = src.getWidth();
+        int h = src.getHeight();
+        while (w / 2 >= width) {
+            w /= 2;
+            h = Math.max(height, h / 2);
+            current = draw(current, w, h, type, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        if (w != width || h != height || current == src) {
+            current = draw(current, width, height, type, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        }
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage src, int width, int height, int type, Object interpolation) {
+        BufferedImage out = new BufferedImage(width, height, type);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                // transparent areas of a PNG turned into a JPEG would otherwise come out black
+                g.setColor(java.awt.Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.drawImage(src, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(buf)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return buf.toByteArray();
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        if (!ImageIO.write(image, "png", buf)) throw new IOException("No PNG writer");
+        return buf.toByteArray();
+    }
+
+    /** The source bytes, wherever the asset keeps them. */
+    private static byte[] bytes(AssetCache.Asset source) throws IOException {
+        if (source.data != null) return source.data;
+        if (source.file != null) return Files.readAllBytes(source.file);
+        ByteBuffer mapped = source.select(Compression.Encoding.IDENTITY).mapped;
+        byte[] b = new byte[mapped.remaining()];
+        mapped.duplicate().get(b);
+        return b;
+    }
+
+    private static String contentType(Path p) {
+        return p.getFileName().toString().endsWith(".png") ? "image/png" : "image/jpeg";
+    }
+
+    private synchronized void touch(String name) {
+        onDisk.get(name);
+    }
+
+    /** Records a new variant file and deletes the least recently used ones over the budget. */
+    private void added(String name, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long old = onDisk.put(name, size);
+            diskBytes += size - (old == null ? 0 : old);
+            Iterator<Map.Entry<String, Long>> it = onDisk.entrySet().iterator();
+            while (diskBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                if (e.getKey().equals(name)) continue;
+                diskBytes -= e.getValue();
+                evicted.add(e.getKey());
+                it.remove();
+            }
+        }
+        for (String n : evicted) {
+            Path f = dir.resolve(n);
+            files.invalidate(f);
+            try {
+                Files.deleteIfExists(f);
+            } catch (IOException e) {
+                // gone or busy; it no longer counts either way
+            }
+        }
+    }
+
+    private record Found(String name, long size, long modifiedMillis) { }
+
+    /**
+     * Adopts the variants an earlier run left behind, oldest first, so they count against
+     * the budget, and deletes the temp files of resizes it interrupted. Called once from the
+     * constructor; if the directory can't be read the index starts empty.
+     */
+    private void loadIndex() {
+        if (!Files.isDirectory(dir)) return;
+        List<Found> found = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                String n = p.getFileName().toString();
+                if (n.startsWith(".resize-") && n.endsWith(".tmp")) {
+                    Files.deleteIfExists(p);
+                    continue;
+                }
+                if (n.startsWith(".")) continue;
+                BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                if (a.isRegularFile()) found.add(new Found(n, a.size(), a.lastModifiedTime().toMillis()));
+            }
+        } catch (IOException e) {
+            // variants written from now on are still tracked; unread ones just don't count
+            System.err.println("Image variants: cannot read " + dir + " (" + e.getMessage() + ")");
+            return;
+        }
+        found.sort(Comparator.comparingLong(Found::modifiedMillis));
+        for (Found f : found) {
+            onDisk.put(f.name, f.size);
+            diskBytes += f.size;
+        }
+    }
+
+    long hits() { return hits.sum(); }
+
+    long resized() { return resized.sum(); }
+
+    long coalesced() { return coalesced.sum(); }
+
+    synchronized long diskBytes() {
+        return diskBytes;
+    }
+}
@@ -0,0 +1,156 @@
+package blog.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the phases of a request, so a slow chat call can be
+ * taken apart in JMC: body parse, upstream encode, the upstream HTTP exchange, reply
+ * extraction and the JSON response, plus static-file lookup and write.
+ *
+ * Call sites use the usual JFR idiom (new, begin, end, shouldCommit, set fields, commit),
+ * and the events carry no stack trace: they fire on every request and the call site is fixed.
+ * With no recording running, shouldCommit is false and the JIT removes the allocation,
+ * so the events cost next to nothing unless someone is recording. {@link #startRecording}
+ * keeps one running in a rolling buffer for incidents; any other recording (for example
+ * -XX:StartFlightRecording or jcmd JFR.start) picks the events up too.
+ */
+final class JfrEvents {
+    /** Name of the recording started by {@link #startRecording}; what jcmd JFR.dump name=... takes. */
+    static final String RECORDING_NAME = "blog";
+
+    private JfrEvents() { }
+
+    @Name("blog.Request")
+    @Label("HTTP Request")
+    @StackTrace(false)
+    @Category({"Blog", "HTTP"})
+    @Description("A routed request, from arrival until its response finished (async chat replies included).")
+    static final class Request extends Event {
+        @Label("Route") String route;
+        @Label("Method") String method;
+        @Label("Path") String path;
+        @Label("Status") int status;
+        @Label("Response Bytes") @DataAmount long responseBytes;
+        @Label("Upstream Wait") @Description("0 when the request made no upstream call") @Timespan long upstreamWait;
+    }
+
+    @Name("blog.BodyParse")
+    @Label("Request Body Parse")
+    @StackTrace(false)
+    @Category({"Blog", "HTTP"})
+    @Description("Reading a JSON request body and binding it; the two are one streaming pass.")
+    static final class BodyParse extends Event {
+        @Label("Route") String route;
+        @Label("Declared Bytes") @Description("Content-Length, or -1 when not sent") @DataAmount long declaredBytes;
+        @Label("Outcome") String outcome;
+    }
+
+    @Name("blog.JsonResponse")
+    @Label("JSON Response")
+    @StackTrace(false)
+    @Category({"Blog", "HTTP"})
+    @Description("Serializing a JSON response and writing it to the client.")
+    static final class JsonResponse extends Event {
+        @Label("Route") String route;
+        @Label("Status") int status;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Encoding") String encoding;
+        @Label("Serialize Time") @Timespan long serializeTime;
+    }
+
+    @Name("blog.UpstreamEncode")
+    @Label("Upstream Request Encode")
+    @StackTrace(false)
+    @Category({"Blog", "Upstream"})
+    static final class UpstreamEncode extends Event {
+        @Label("Call") String call;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Turns") int turns;
+    }
+
+    @Name("blog.UpstreamCall")
+    @Label("Upstream Call")
+    @StackTrace(false)
+    @Category({"Blog", "Upstream"})
+    @Description("One HTTP exchange with the model API; for streamed replies, until the response headers arrived.")
+    static final class UpstreamCall extends Event {
+        @Label("Call") String call;
+        @Label("HTTP Status") @Description("-1 when no response arrived") int status;
+        @Label("Request Bytes") @DataAmount long requestBytes;
+        @Label("Response Chars") @Description("-1 for streamed replies") long responseChars;
+        @Label("Outcome") String outcome;
+    }
+
+    @Name("blog.UpstreamDecode")
+    @Label("Upstream Reply Extract")
+    @StackTrace(false)
+    @Category({"Blog", "Upstream"})
+    @Description("Pulling the reply text out of a model response or one streamed chunk.")
+    static final class UpstreamDecode extends Event {
+        @Label("Response Chars") long responseChars;
+        @Label("Text Chars") @Description("-1 when no text was found") long textChars;
+    }
+
+    @Name("blog.StaticLookup")
+    @Label("Static File Lookup")
+    @StackTrace(false)
+    @Category({"Blog", "Static"})
+    @Description("Finding a file's bytes: cache or bundle lookup, load on a miss, page rewrite and image resize.")
+    static final class StaticLookup extends Event {
+        @Label("Path") String path;
+        @Label("Found") boolean found;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Resized") boolean resized;
+    }
+
+    @Name("blog.StaticWrite")
+    @Label("Static File Write")
+    @StackTrace(false)
+    @Category({"Blog", "Static"})
+    @Description("Sending a static file's body to the client.")
+    static final class StaticWrite extends Event {
+        @Label("Path") String path;
+        @Label("Status") int status;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Encoding") String encoding;
+        @Label("Source") @Description("memory, mapped (bundle) or file (streamed from disk)") String source;
+    }
+
+    /**
+     * Starts a continuous recording with the JDK's default settings plus the events above,
+     * keeping the last maxAge / maxBytes on disk. dumpOnExit, if not null, receives the
+     * buffer when the JVM exits; otherwise dump it with jcmd &lt;pid&gt; JFR.dump name=blog.
+     */
+    static Recording startRecording(Duration maxAge, long maxBytes, Path dumpOnExit) throws IOException, ParseException {
+        Recording r = new Recording(Configuration.getConfiguration("default"));
+        r.setName(RECORDING_NAME);
+        r.setToDisk(true);
+        r.setMaxAge(maxAge);
+        r.setMaxSize(maxBytes);
+        for (Class<? extends Event> type : List.of(Request.class, BodyParse.class, JsonResponse.class, UpstreamEncode.class,
+                UpstreamCall.class, UpstreamDecode.class, StaticLookup.class, StaticWrite.class)) {
+            r.enable(type);
+        }
+        if (dumpOnExit != null) {
+            r.setDestination(dumpOnExit);
+            r.setDumpOnExit(true);
+        }
+        r.start();
+        return r;
+    }
+}
@@ -0,0 +1,1395 @@
+package blog.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Tiny JSON parser/encoder (no external deps) for this project.
+ * Supports objects, arrays, strings, numbers, booleans, null,
+ * and binding to/from records via cached per-type codecs.
+ */
+public final class Json {
+    private Json() {}
+
+    public static Object parse(String json) {
+        if (json == null) throw new IllegalArgumentException("json is null");
+        Parser p = new Parser(json);
+        Object v = p.readValue();
+        p.skipWs();
+        if (!p.eof()) throw new IllegalArgumentException("Trailing data at pos " + p.i);
+        return v;
+    }
+
+    /**
+     * Parses UTF-8 JSON straight from a stream without first copying it into a String.
+     * Reading stops with {@link LimitExceededException} as soon as more than maxBytes
+     * arrive or nesting goes deeper than maxDepth. A leading BOM is skipped.
+     * Returns null for empty or whitespace-only input.
+     */
+    public static Object parse(InputStream in, long maxBytes, int maxDepth) throws IOException {
+        if (in == null) throw new IllegalArgumentException("input is null");
+        return new ByteParser(in, null, maxBytes, maxDepth).parseDocument(null);
+    }
+
+    /**
+     * Binds UTF-8 JSON from a stream directly to a record (or List, String, number...)
+     * without building an intermediate Map tree. Unknown fields are skipped, missing ones
+     * get null / zero. Type mismatches raise {@link BindException} naming the field.
+     * Returns null for empty input. Limits as in {@link #parse(InputStream, long, int)}.
+     */
+    public static <T> T read(InputStream in, Class<T> type, long maxBytes, int maxDepth) throws IOException {
+        if (in == null) throw new IllegalArgumentException("input is null");
+        return type.cast(new ByteParser(in, null, maxBytes, maxDepth).parseDocument(binder(type)));
+    }
+
+    /** Same as {@link #read(InputStream, Class, long, int)} over the remaining bytes of a buffer. */
+    public static <T> T read(ByteBuffer buf, Class<T> type, int maxDepth) {
+        if (buf == null) throw new IllegalArgumentException("input is null");
+        try {
+            return type.cast(new ByteParser(null, buf, Long.MAX_VALUE, maxDepth).parseDocument(binder(type)));
+        } catch (IOException e) {
+            // buffers don't do I/O
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Encodes to an exact-size UTF-8 array, e.g. for a request body that outlives the pooled buffer. */
+    public static byte[] toBytes(Object v) {
+        Utf8Buffer buf = encode(v);
+        try {
+            return Arrays.copyOf(buf.array(), buf.length());
+        } finally {
+            release(buf);
+        }
+    }
+
+    /** A value didn't have the type the target record declares; the message names the field. */
+    public static final class BindException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+
+        BindException(String path, String message) {
+            super((path.isEmpty() ? "" : path + ": ") + message);
+            this.path = path;
+        }
+
+        /** Location of the bad value, e.g. {@code history[2].role}; empty for the root. */
+        public String path() {
+            return path;
+        }
+    }
+
+    /** Same as {@link #parse(InputStream, long, int)} over the remaining bytes of a buffer. */
+    public static Object parse(ByteBuffer buf, int maxDepth) {
+        if (buf == null) throw new IllegalArgumentException("input is null");
+        try {
+            return new ByteParser(null, buf, Long.MAX_VALUE, maxDepth).parseDocument(null);
+        } catch (IOException e) {
+            // buffers don't do I/O
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the values at path without building the rest of the document: subtrees
+     * off the path are skipped by scanning, and scanning stops as soon as no further
+     * match is possible. Matched values are materialized as {@link #parse(String)} would.
+     */
+    public static List<Object> select(String json, Path path) {
+        if (json == null) throw new IllegalArgumentException("json is null");
+        List<Object> out = new ArrayList<>();
+        Parser p = new Parser(json);
+        p.select(path.steps, 0, false, out);
+        return out;
+    }
+
+    /**
+     * Compiled selector such as {@code candidates[0].content.parts[*].text}: dot-separated
+     * field names, each optionally followed by {@code [n]} (one array element) or
+     * {@code [*]} (every element). Compile once and reuse.
+     */
+    public static final class Path {
+        private final Object[] steps; // String = field, Integer = index, WILDCARD = every element
+        private final String expr;
+
+        private Path(Object[] steps, String expr) {
+            this.steps = steps;
+            this.expr = expr;
+        }
+
+        public static Path compile(String expr) {
+            if (expr == null || expr.isBlank()) throw new IllegalArgumentException("empty path");
+            List<Object> steps = new ArrayList<>();
+            int i = 0;
+            int n = expr.length();
+            while (i < n) {
+                char c = expr.charAt(i);
+                if (c == '.') {
+                    i++;
+                } else if (c == '[') {
+                    int close = expr.indexOf(']', i);
+                    if (close < 0) throw new IllegalArgumentException("Unclosed '[' in path: " + expr);
+                    String idx = expr.substring(i + 1, close).trim();
+                    if (idx.equals("*")) {
+                        steps.add(WILDCARD);
+                    } else {
+                        try {
+                            steps.add(Integer.parseInt(idx));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad index '" + idx + "' in path: " + expr);
+                        }
+                    }
+                    i = close + 1;
+                } else {
+                    int end = i;
+                    while (end < n && expr.charAt(end) != '.' && expr.charAt(end) != '[') end++;
+                    steps.add(expr.substring(i, end));
+                    i = end;
+                }
+            }
+            return new Path(steps.toArray(), expr);
+        }
+
+        @Override public String toString() { return expr; }
+    }
+
+    private static final Object WILDCARD = new Object();
+
+    /** Reads one value of a fixed Java type from the byte parser. */
+    private interface Binder {
+        Object read(ByteParser p) throws IOException;
+    }
+
+    private static final ClassValue<RecordCodec> CODECS = new ClassValue<>() {
+        @Override protected RecordCodec computeValue(Class<?> type) {
+            return new RecordCodec(type);
+        }
+    };
+
+    private static Binder binder(Type type) {
+        Class<?> raw = type instanceof ParameterizedType pt ? (Class<?>) pt.getRawType()
+                : type instanceof Class<?> c ? c : Object.class;
+        if (raw == String.class) return p -> p.readNull() ? null : p.readStringValue();
+        if (raw == int.class) return p -> toInt(p.readNumberValue("integer"), p);
+        if (raw == Integer.class) return p -> p.readNull() ? null : toInt(p.readNumberValue("integer"), p);
+        if (raw == long.class || raw == Long.class) {
+            boolean prim = raw.isPrimitive();
+            return p -> !prim && p.readNull() ? null : toLong(p.readNumberValue("integer"), p);
+        }
+        if (raw == double.class || raw == Double.class) {
+            boolean prim = raw.isPrimitive();
+            return p -> !prim && p.readNull() ? null : p.readNumberValue("number").doubleValue();
+        }
+        if (raw == boolean.class) return ByteParser::readBooleanValue;
+        if (raw == Boolean.class) return p -> p.readNull() ? null : p.readBooleanValue();
+        if (List.class.isAssignableFrom(raw)) {
+            Type elem = type instanceof ParameterizedType pt ? pt.getActualTypeArguments()[0] : Object.class;
+            Binder element = binder(elem);
+            return p -> p.readNull() ? null : p.readList(element);
+        }
+        if (raw.isRecord()) {
+            // looked up lazily so records may refer to themselves
+            return p -> p.readNull() ? null : p.readRecord(CODECS.get(raw));
+        }
+        return ByteParser::readValue;
+    }
+
+    private static Object toInt(Number n, ByteParser p) {
+        if (n instanceof Integer) return n;
+        throw p.bindError("integer", n.toString());
+    }
+
+    private static Object toLong(Number n, ByteParser p) {
+        if (n instanceof Integer || n instanceof Long) return n.longValue();
+        throw p.bindError("integer", n.toString());
+    }
+
+    /**
+     * Per-record-type binding built once from the record's components: field names
+     * (pre-encoded for output), accessor handles (primitive ones typed to avoid boxing
+     * on write), per-field binders and the canonical constructor.
+     */
+    private static final class RecordCodec {
+        private static final int OBJECT = 0, INT = 1, LONG = 2, DOUBLE = 3, BOOLEAN = 4;
+
+        final String[] names;
+        final Binder[] binders;
+        final Object[] defaults;
+        private final byte[][] encodedNames;
+        private final MethodHandle[] accessors;
+        private final int[] kinds;
+        private final MethodHandle constructor;
+
+        RecordCodec(Class<?> type) {
+            if (!type.isRecord()) throw new IllegalArgumentException(type + " is not a record");
+            RecordComponent[] rc = type.getRecordComponents();
+            names = new String[rc.length];
+            binders = new Binder[rc.length];
+            defaults = new Object[rc.length];
+            encodedNames = new byte[rc.length][];
+            accessors = new MethodHandle[rc.length];
+            kinds = new int[rc.length];
+            Class<?>[] paramTypes = new Class<?>[rc.length];
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                for (int k = 0; k < rc.length; k++) {
+                    Class<?> t = rc[k].getType();
+                    names[k] = rc[k].getName();
+                    paramTypes[k] = t;
+                    binders[k] = binder(rc[k].getGenericType());
+                    encodedNames[k] = ('"' + names[k] + "\":").getBytes(StandardCharsets.UTF_8);
+                    Method accessor = rc[k].getAccessor();
+                    accessor.setAccessible(true);
+                    MethodHandle mh = lookup.unreflect(accessor);
+                    if (t == int.class) { kinds[k] = INT; defaults[k] = 0; }
+                    else if (t == long.class) { kinds[k] = LONG; defaults[k] = 0L; }
+                    else if (t == double.class) { kinds[k] = DOUBLE; defaults[k] = 0.0; }
+                    else if (t == boolean.class) { kinds[k] = BOOLEAN; defaults[k] = false; }
+                    else { kinds[k] = OBJECT; t = Object.class; }
+                    accessors[k] = mh.asType(MethodType.methodType(t, Object.class));
+                }
+                Constructor<?> ctor = type.getDeclaredConstructor(paramTypes);
+                ctor.setAccessible(true);
+                constructor = lookup.unreflectConstructor(ctor)
+                        .asType(MethodType.methodType(Object.class, paramTypes))
+                        .asSpreader(Object[].class, rc.length);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot build JSON codec for " + type.getName(), e);
+            }
+        }
+
+        int indexOf(CharSequence key) {
+            for (int k = 0; k < names.length; k++) {
+                if (names[k].contentEquals(key)) return k;
+            }
+            return -1;
+        }
+
+        Object construct(Object[] args) {
+            try {
+                return constructor.invoke(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /** Writes the record as an object; null components are omitted. */
+        void write(Utf8Buffer out, Object rec) throws IOException {
+            out.put((byte) '{');
+            boolean first = true;
+            try {
+                for (int k = 0; k < accessors.length; k++) {
+                    MethodHandle mh = accessors[k];
+                    switch (kinds[k]) {
+                        case INT -> { first = field(out, k, first); out.writeLong((int) mh.invokeExact(rec)); }
+                        case LONG -> { first = field(out, k, first); out.writeLong((long) mh.invokeExact(rec)); }
+                        case DOUBLE -> { first = field(out, k, first); out.writeAscii(Double.toString((double) mh.invokeExact(rec))); }
+                        case BOOLEAN -> { first = field(out, k, first); out.put((boolean) mh.invokeExact(rec) ? TRUE : FALSE); }
+                        default -> {
+                            Object v = (Object) mh.invokeExact(rec);
+                            if (v == null) continue;
+                            first = field(out, k, first);
+                            out.writeValue(v);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            out.put((byte) '}');
+        }
+
+        private boolean field(Utf8Buffer out, int k, boolean first) throws IOException {
+            if (!first) out.put((byte) ',');
+            out.put(encodedNames[k]);
+            return false;
+        }
+
+        void append(StringBuilder sb, Object rec) {
+            sb.append('{');
+            boolean first = true;
+            try {
+                for (int k = 0; k < accessors.length; k++) {
+                    Object v = accessors[k].invoke(rec);
+                    if (v == null) continue;
+                    if (!first) sb.append(',');
+                    first = false;
+                    appendString(sb, names[k]);
+                    sb.append(':');
+                    writeValue(sb, v);
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            sb.append('}');
+        }
+    }
+
+    /** Input was larger or deeper than the caller allowed. */
+    public static final class LimitExceededException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean size;
+
+        LimitExceededException(String message, boolean size) {
+            super(message);
+            this.size = size;
+        }
+
+        /** True if the byte limit was hit, false for the nesting limit. */
+        public boolean isSizeLimit() {
+            return size;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> asObject(Object v) {
+        return (Map<String, Object>) v;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Object> asArray(Object v) {
+        return (List<Object>) v;
+    }
+
+    public static String asString(Object v) {
+        return (v == null) ? null : String.valueOf(v);
+    }
+
+    public static String stringify(Object v) {
+        StringBuilder sb = new StringBuilder();
+        writeValue(sb, v);
+        return sb.toString();
+    }
+
+    /**
+     * Encodes to UTF-8 in a pooled buffer. The caller reads {@link Utf8Buffer#array()} up to
+     * {@link Utf8Buffer#length()} and must hand the buffer back with {@link #release(Utf8Buffer)}.
+     */
+    public static Utf8Buffer encode(Object v) {
+        Utf8Buffer buf = POOL.poll();
+        if (buf == null) buf = new Utf8Buffer(INITIAL_BUFFER);
+        buf.length = 0;
+        try {
+            buf.writeValue(v);
+        } catch (IOException e) {
+            // no sink attached, nothing can fail
+            throw new IllegalStateException(e);
+        }
+        return buf;
+    }
+
+    public static void release(Utf8Buffer buf) {
+        if (buf == null || buf.sink != null) return;
+        // don't let one huge response pin a huge buffer in the pool
+        if (buf.bytes.length > MAX_POOLED_BUFFER) return;
+        POOL.offer(buf);
+    }
+
+    /** Streams UTF-8 JSON into out through a pooled buffer, flushing whenever it fills up. */
+    public static void write(Object v, OutputStream out) throws IOException {
+        Utf8Buffer buf = POOL.poll();
+        if (buf == null) buf = new Utf8Buffer(INITIAL_BUFFER);
+        buf.length = 0;
+        buf.sink = out;
+        try {
+            buf.writeValue(v);
+            buf.flushToSink();
+        } finally {
+            buf.sink = null;
+            buf.length = 0;
+            release(buf);
+        }
+    }
+
+    private static final int INITIAL_BUFFER = 4096;
+    private static final int MAX_POOLED_BUFFER = 64 * 1024;
+    private static final ArrayBlockingQueue<Utf8Buffer> POOL = new ArrayBlockingQueue<>(64);
+
+    /** Characters below 0x80 that must be escaped inside a JSON string. */
+    private static final boolean[] NEEDS_ESCAPE = new boolean[128];
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    static {
+        for (int c = 0; c < 0x20; c++) NEEDS_ESCAPE[c] = true;
+        NEEDS_ESCAPE['"'] = true;
+        NEEDS_ESCAPE['\\'] = true;
+    }
+
+    /**
+     * Growable UTF-8 byte buffer that JSON is written into directly. With a sink attached it
+     * flushes instead of growing, so streaming output needs only the fixed buffer.
+     */
+    public static final class Utf8Buffer {
+        private byte[] bytes;
+        private int length;
+        private OutputStream sink;
+
+        private Utf8Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        public byte[] array() { return bytes; }
+
+        public int length() { return length; }
+
+        private void ensure(int n) throws IOException {
+            if (length + n <= bytes.length) return;
+            if (sink != null) {
+                flushToSink();
+                if (n <= bytes.length) return;
+            }
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+        }
+
+        private void flushToSink() throws IOException {
+            if (length > 0) sink.write(bytes, 0, length);
+            length = 0;
+        }
+
+        private void put(byte b) throws IOException {
+            if (length == bytes.length) ensure(1);
+            bytes[length++] = b;
+        }
+
+        private void put(byte[] b) throws IOException {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        private void writeValue(Object v) throws IOException {
+            if (v == null) {
+                put(NULL);
+            } else if (v instanceof String s) {
+                writeString(s);
+            } else if (v instanceof Boolean b) {
+                put(b ? TRUE : FALSE);
+            } else if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+                writeLong(((Number) v).longValue());
+            } else if (v instanceof Number n) {
+                writeAscii(n.toString());
+            } else if (v instanceof Record r) {
+                CODECS.get(r.getClass()).write(this, r);
+            } else if (v instanceof Map<?, ?> m) {
+                put((byte) '{');
+                boolean first = true;
+                for (Map.Entry<?, ?> e : m.entrySet()) {
+                    if (!(e.getKey() instanceof String k)) continue;
+                    if (!first) put((byte) ',');
+                    first = false;
+                    writeString(k);
+                    put((byte) ':');
+                    writeValue(e.getValue());
+                }
+                put((byte) '}');
+            } else if (v instanceof List<?> a) {
+                put((byte) '[');
+                boolean first = true;
+                for (Object x : a) {
+                    if (!first) put((byte) ',');
+                    first = false;
+                    writeValue(x);
+                }
+                put((byte) ']');
+            } else {
+                writeString(String.valueOf(v));
+            }
+        }
+
+        private void writeAscii(String s) throws IOException {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) bytes[length++] = (byte) s.charAt(i);
+        }
+
+        private void writeLong(long v) throws IOException {
+            if (v == Long.MIN_VALUE) {
+                writeAscii("-9223372036854775808");
+                return;
+            }
+            ensure(20);
+            if (v < 0) {
+                bytes[length++] = '-';
+                v = -v;
+            }
+            int start = length;
+            do {
+                bytes[length++] = (byte) ('0' + (v % 10));
+                v /= 10;
+            } while (v != 0);
+            // digits came out least significant first
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte t = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = t;
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            put((byte) '"');
+            int n = s.length();
+            int i = 0;
+            while (i < n) {
+                // fast path: copy a run of ASCII that needs no escaping
+                ensure(Math.min(n - i, 512));
+                int room = bytes.length - length;
+                while (i < n && room > 0) {
+                    char c = s.charAt(i);
+                    if (c >= 0x80 || NEEDS_ESCAPE[c]) break;
+                    bytes[length++] = (byte) c;
+                    i++;
+                    room--;
+                }
+                if (i >= n) break;
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (NEEDS_ESCAPE[c]) {
+                        writeEscape(c);
+                        i++;
+                    }
+                    continue;
+                }
+                ensure(4);
+                if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate: same replacement String.getBytes would use
+                    bytes[length++] = '?';
+                } else {
+                    bytes[length++] = (byte) (0xE0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+                i++;
+            }
+            put((byte) '"');
+        }
+
+        private void writeEscape(char c) throws IOException {
+            ensure(6);
+            bytes[length++] = '\\';
+            switch (c) {
+                case '"' -> bytes[length++] = '"';
+                case '\\' -> bytes[length++] = '\\';
+                case '\b' -> bytes[length++] = 'b';
+                case '\f' -> bytes[length++] = 'f';
+                case '\n' -> bytes[length++] = 'n';
+                case '\r' -> bytes[length++] = 'r';
+                case '\t' -> bytes[length++] = 't';
+                default -> {
+                    bytes[length++] = 'u';
+                    bytes[length++] = '0';
+                    bytes[length++] = '0';
+                    bytes[length++] = HEX[(c >> 4) & 0xF];
+                    bytes[length++] = HEX[c & 0xF];
+                }
+            }
+        }
+    }
+
+    private static void writeValue(StringBuilder sb, Object v) {
+        if (v == null) {
+            sb.append("null");
+        } else if (v instanceof String s) {
+            appendString(sb, s);
+        } else if (v instanceof Boolean b) {
+            sb.append(b ? "true" : "false");
+        } else if (v instanceof Number n) {
+            sb.append(n.toString());
+        } else if (v instanceof Record r) {
+            CODECS.get(r.getClass()).append(sb, r);
+        } else if (v instanceof Map<?, ?> m) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                if (!(e.getKey() instanceof String k)) continue;
+                if (!first) sb.append(',');
+                first = false;
+                appendString(sb, k);
+                sb.append(':');
+                writeValue(sb, e.getValue());
+            }
+            sb.append('}');
+        } else if (v instanceof List<?> a) {
+            sb.append('[');
+            boolean first = true;
+            for (Object x : a) {
+                if (!first) sb.append(',');
+                first = false;
+                writeValue(sb, x);
+            }
+            sb.append(']');
+        } else {
+            appendString(sb, String.valueOf(v));
+        }
+    }
+
+    /** Quotes and escapes s into sb, appending unescaped runs in one call. */
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        int run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || !NEEDS_ESCAPE[c]) continue;
+            sb.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> sb.append("\\u00").append((char) HEX[(c >> 4) & 0xF]).append((char) HEX[c & 0xF]);
+            }
+        }
+        sb.append(s, run, s.length()).append('"');
+    }
+
+    private static final class Parser {
+        private final String s;
+        private int i = 0;
+
+        Parser(String s) { this.s = s; }
+
+        boolean eof() { return i >= s.length(); }
+
+        void skipWs() {
+            while (!eof()) {
+                char c = s.charAt(i);
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') i++;
+                else break;
+            }
+        }
+
+        char peek() {
+            if (eof()) return '\0';
+            return s.charAt(i);
+        }
+
+        char next() {
+            if (eof()) throw new IllegalArgumentException("Unexpected end at pos " + i);
+            return s.charAt(i++);
+        }
+
+        void expect(char c) {
+            char got = next();
+            if (got != c) throw new IllegalArgumentException("Expected '" + c + "' but got '" + got + "' at pos " + (i - 1));
+        }
+
+        /**
+         * Walks the value at the cursor along steps[k..]. Unless mustConsume is set, returns
+         * as soon as the path can't match anything further, leaving the cursor mid-document;
+         * under a wildcard every element must be consumed so the next one can be scanned.
+         */
+        void select(Object[] steps, int k, boolean mustConsume, List<Object> out) {
+            skipWs();
+            if (k == steps.length) {
+                out.add(readValue());
+                return;
+            }
+            Object step = steps[k];
+            char c = peek();
+            if (step instanceof String field) {
+                if (c != '{') { skipValue(); return; }
+                i++;
+                skipWs();
+                if (peek() == '}') { i++; return; }
+                while (true) {
+                    skipWs();
+                    boolean match = keyEquals(field);
+                    skipWs();
+                    expect(':');
+                    if (match) {
+                        select(steps, k + 1, mustConsume, out);
+                        // keys are unique: nothing else in this object can match
+                        if (!mustConsume) return;
+                    } else {
+                        skipValue();
+                    }
+                    skipWs();
+                    char d = next();
+                    if (d == '}') return;
+                    if (d != ',') throw new IllegalArgumentException("Expected ',' or '}' at pos " + (i - 1));
+                }
+            }
+            if (c != '[') { skipValue(); return; }
+            i++;
+            skipWs();
+            if (peek() == ']') { i++; return; }
+            boolean all = step == WILDCARD;
+            int want = all ? -1 : (Integer) step;
+            for (int idx = 0; ; idx++) {
+                if (all || idx == want) {
+                    select(steps, k + 1, mustConsume || all, out);
+                    if (!all && !mustConsume) return;
+                } else {
+                    skipValue();
+                }
+                skipWs();
+                char d = next();
+                if (d == ']') return;
+                if (d != ',') throw new IllegalArgumentException("Expected ',' or ']' at pos " + (i - 1));
+            }
+        }
+
+        /** Consumes an object key and compares it without allocating unless it contains escapes. */
+        boolean keyEquals(String name) {
+            int start = i;
+            expect('"');
+            int k = 0;
+            while (true) {
+                char c = next();
+                if (c == '"') return k == name.length();
+                if (c == '\\') {
+                    i = start;
+                    return readString().equals(name);
+                }
+                if (k >= name.length() || name.charAt(k) != c) {
+                    skipStringRest();
+                    return false;
+                }
+                k++;
+            }
+        }
+
+        /** Skips any value by scanning, without building strings, maps or lists. */
+        void skipValue() {
+            skipWs();
+            char c = peek();
+            if (c == '"') {
+                i++;
+                skipStringRest();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                while (true) {
+                    char d = next();
+                    if (d == '"') skipStringRest();
+                    else if (d == '{' || d == '[') depth++;
+                    else if ((d == '}' || d == ']') && --depth == 0) return;
+                }
+            } else {
+                // number or literal: runs until a delimiter
+                int start = i;
+                while (!eof()) {
+                    char d = s.charAt(i);
+                    if (d == ',' || d == '}' || d == ']' || d == ' ' || d == '\n' || d == '\r' || d == '\t') break;
+                    i++;
+                }
+                if (i == start) throw new IllegalArgumentException("Unexpected char '" + c + "' at pos " + i);
+            }
+        }
+
+        /** Cursor is just past the opening quote. */
+        void skipStringRest() {
+            while (true) {
+                char c = next();
+                if (c == '"') return;
+                if (c == '\\') next();
+            }
+        }
+
+        Object readValue() {
+            skipWs();
+            char c = peek();
+            return switch (c) {
+                case '{' -> readObject();
+                case '[' -> readArray();
+                case '"' -> readString();
+                case 't' -> { readLiteral("true"); yield Boolean.TRUE; }
+                case 'f' -> { readLiteral("false"); yield Boolean.FALSE; }
+                case 'n' -> { readLiteral("null"); yield null; }
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) yield readNumber();
+                    throw new IllegalArgumentException("Unexpected char '" + c + "' at pos " + i);
+                }
+            };
+        }
+
+        Map<String, Object> readObject() {
+            expect('{');
+            skipWs();
+            Map<String, Object> m = new LinkedHashMap<>();
+            if (peek() == '}') { i++; return m; }
+            while (true) {
+                skipWs();
+                String key = readString();
+                skipWs();
+                expect(':');
+                Object val = readValue();
+                m.put(key, val);
+                skipWs();
+                char c = next();
+                if (c == '}') break;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or '}' at pos " + (i - 1));
+            }
+            return m;
+        }
+
+        List<Object> readArray() {
+            expect('[');
+            skipWs();
+            List<Object> a = new ArrayList<>();
+            if (peek() == ']') { i++; return a; }
+            while (true) {
+                Object v = readValue();
+                a.add(v);
+                skipWs();
+                char c = next();
+                if (c == ']') break;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or ']' at pos " + (i - 1));
+            }
+            return a;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                if (eof()) throw new IllegalArgumentException("Unterminated string");
+                char c = next();
+                if (c == '"') break;
+                if (c == '\\') {
+                    if (eof()) throw new IllegalArgumentException("Bad escape");
+                    char e = next();
+                    switch (e) {
+                        case '"', '\\', '/' -> out.append(e);
+                        case 'b' -> out.append('\b');
+                        case 'f' -> out.append('\f');
+                        case 'n' -> out.append('\n');
+                        case 'r' -> out.append('\r');
+                        case 't' -> out.append('\t');
+                        case 'u' -> {
+                            if (i + 4 > s.length()) throw new IllegalArgumentException("Bad \\u escape");
+                            String hex = s.substring(i, i + 4);
+                            i += 4;
+                            out.append((char) Integer.parseInt(hex, 16));
+                        }
+                        default -> throw new IllegalArgumentException("Bad escape \\" + e);
+                    }
+                } else {
+                    out.append(c);
+                }
+            }
+            return out.toString();
+        }
+
+        Number readNumber() {
+            int start = i;
+            if (peek() == '-') i++;
+            while (!eof() && Character.isDigit(peek())) i++;
+            boolean isFloat = false;
+            if (!eof() && peek() == '.') {
+                isFloat = true;
+                i++;
+                while (!eof() && Character.isDigit(peek())) i++;
+            }
+            if (!eof() && (peek() == 'e' || peek() == 'E')) {
+                isFloat = true;
+                i++;
+                if (!eof() && (peek() == '+' || peek() == '-')) i++;
+                while (!eof() && Character.isDigit(peek())) i++;
+            }
+            String num = s.substring(start, i);
+            try {
+                if (isFloat) return Double.parseDouble(num);
+                long v = Long.parseLong(num);
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) return (int) v;
+                return v;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number '" + num + "'");
+            }
+        }
+
+        void readLiteral(String lit) {
+            for (int k = 0; k < lit.length(); k++) {
+                char c = next();
+                if (c != lit.charAt(k)) throw new IllegalArgumentException("Expected '" + lit + "' at pos " + (i - 1));
+            }
+        }
+    }
+    /**
+     * Pull parser over UTF-8 bytes. Strings are decoded into one reusable builder and
+     * numbers are accumulated digit by digit, so no intermediate String is created
+     * except for the values themselves.
+     */
+    private static final class ByteParser {
+        private static final double[] POW10 = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private final InputStream in;
+        private final ByteBuffer src;
+        private final long maxBytes;
+        private final int maxDepth;
+        private final byte[] buf;
+        private int pos = 0;
+        private int limit = 0;
+        private long consumed = 0;
+        private int depth = 0;
+        private final StringBuilder sb = new StringBuilder(64);
+
+        ByteParser(InputStream in, ByteBuffer src, long maxBytes, int maxDepth) {
+            this.in = in;
+            this.src = src;
+            this.maxBytes = maxBytes;
+            this.maxDepth = maxDepth;
+            this.buf = new byte[src != null ? Math.min(8192, Math.max(16, src.remaining())) : 8192];
+        }
+
+        /** binder null means an untyped Map/List tree. */
+        Object parseDocument(Binder binder) throws IOException {
+            // some clients send UTF-8 with BOM; skip it so parsing works
+            if (peek() == 0xEF) {
+                next();
+                if (next() != 0xBB || next() != 0xBF) throw new IllegalArgumentException("Bad byte order mark");
+            }
+            skipWs();
+            if (peek() < 0) return null;
+            Object v = binder == null ? readValue() : binder.read(this);
+            skipWs();
+            if (peek() >= 0) throw new IllegalArgumentException("Trailing data at byte " + offset());
+            return v;
+        }
+
+        private long offset() {
+            return consumed - (limit - pos);
+        }
+
+        private boolean fill() throws IOException {
+            int n;
+            if (in != null) {
+                n = in.read(buf, 0, buf.length);
+            } else {
+                n = Math.min(buf.length, src.remaining());
+                if (n == 0) n = -1;
+                else src.get(buf, 0, n);
+            }
+            if (n <= 0) return false;
+            consumed += n;
+            if (consumed > maxBytes) throw new LimitExceededException("Body exceeds " + maxBytes + " bytes", true);
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        /** Next byte as 0..255 without consuming it, or -1 at end of input. */
+        private int peek() throws IOException {
+            if (pos >= limit && !fill()) return -1;
+            return buf[pos] & 0xFF;
+        }
+
+        private int next() throws IOException {
+            if (pos >= limit && !fill()) throw new IllegalArgumentException("Unexpected end at byte " + offset());
+            return buf[pos++] & 0xFF;
+        }
+
+        private void expect(char c) throws IOException {
+            int got = next();
+            if (got != c) throw new IllegalArgumentException("Expected '" + c + "' at byte " + (offset() - 1));
+        }
+
+        private void skipWs() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') pos++;
+                else return;
+            }
+        }
+
+        private Object readValue() throws IOException {
+            skipWs();
+            int c = peek();
+            return switch (c) {
+                case '{' -> readObject();
+                case '[' -> readArray();
+                case '"' -> readString();
+                case 't' -> { readLiteral("true"); yield Boolean.TRUE; }
+                case 'f' -> { readLiteral("false"); yield Boolean.FALSE; }
+                case 'n' -> { readLiteral("null"); yield null; }
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) yield readNumber();
+                    if (c < 0) throw new IllegalArgumentException("Unexpected end at byte " + offset());
+                    throw new IllegalArgumentException("Unexpected byte 0x" + Integer.toHexString(c) + " at byte " + offset());
+                }
+            };
+        }
+
+        private void enter() {
+            if (++depth > maxDepth) throw new LimitExceededException("Nesting deeper than " + maxDepth, false);
+        }
+
+        private Map<String, Object> readObject() throws IOException {
+            expect('{');
+            enter();
+            Map<String, Object> m = new LinkedHashMap<>();
+            skipWs();
+            if (peek() == '}') { pos++; depth--; return m; }
+            while (true) {
+                skipWs();
+                String key = readString();
+                skipWs();
+                expect(':');
+                m.put(key, readValue());
+                skipWs();
+                int c = next();
+                if (c == '}') break;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or '}' at byte " + (offset() - 1));
+            }
+            depth--;
+            return m;
+        }
+
+        private List<Object> readArray() throws IOException {
+            expect('[');
+            enter();
+            List<Object> a = new ArrayList<>();
+            skipWs();
+            if (peek() == ']') { pos++; depth--; return a; }
+            while (true) {
+                a.add(readValue());
+                skipWs();
+                int c = next();
+                if (c == ']') break;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or ']' at byte " + (offset() - 1));
+            }
+            depth--;
+            return a;
+        }
+
+        private String readString() throws IOException {
+            readStringInto();
+            return sb.toString();
+        }
+
+        /** Decodes the next string into the scratch builder without creating a String. */
+        private void readStringInto() throws IOException {
+            expect('"');
+            sb.setLength(0);
+            while (true) {
+                // fast path: copy a run of plain ASCII straight out of the buffer
+                int start = pos;
+                while (pos < limit) {
+                    byte b = buf[pos];
+                    if (b < 0x20 || b == '"' || b == '\\') break; // negative = non-ASCII lead/continuation
+                    pos++;
+                }
+                for (int k = start; k < pos; k++) sb.append((char) buf[k]);
+                if (pos >= limit) {
+                    if (!fill()) throw new IllegalArgumentException("Unterminated string");
+                    continue;
+                }
+
+                int c = next();
+                if (c == '"') break;
+                if (c == '\\') {
+                    readEscape();
+                } else if (c < 0x80) {
+                    throw new IllegalArgumentException("Control character in string at byte " + (offset() - 1));
+                } else {
+                    readUtf8(c);
+                }
+            }
+        }
+
+        private void readEscape() throws IOException {
+            int e = next();
+            switch (e) {
+                case '"', '\\', '/' -> sb.append((char) e);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    int v = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int d = Character.digit(next(), 16);
+                        if (d < 0) throw new IllegalArgumentException("Bad \\u escape at byte " + (offset() - 1));
+                        v = (v << 4) | d;
+                    }
+                    sb.append((char) v);
+                }
+                default -> throw new IllegalArgumentException("Bad escape \\" + (char) e);
+            }
+        }
+
+        private void readUtf8(int lead) throws IOException {
+            int cp;
+            int extra;
+            int min;
+            if ((lead & 0xE0) == 0xC0) { cp = lead & 0x1F; extra = 1; min = 0x80; }
+            else if ((lead & 0xF0) == 0xE0) { cp = lead & 0x0F; extra = 2; min = 0x800; }
+            else if ((lead & 0xF8) == 0xF0) { cp = lead & 0x07; extra = 3; min = 0x10000; }
+            else throw new IllegalArgumentException("Invalid UTF-8 at byte " + (offset() - 1));
+            for (int k = 0; k < extra; k++) {
+                int b = next();
+                if ((b & 0xC0) != 0x80) throw new IllegalArgumentException("Invalid UTF-8 at byte " + (offset() - 1));
+                cp = (cp << 6) | (b & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                throw new IllegalArgumentException("Invalid UTF-8 at byte " + offset());
+            }
+            sb.appendCodePoint(cp);
+        }
+
+        // ---- typed binding ----
+
+        /** Field/index names from the root to the value being bound, for error messages. */
+        private final ArrayList<Object> path = new ArrayList<>();
+
+        /** Syntax problems stay plain IllegalArgumentExceptions; only well-formed values of the wrong type are BindExceptions. */
+        IllegalArgumentException bindError(String expected) throws IOException {
+            int c = peek();
+            if (c < 0) return new IllegalArgumentException("Unexpected end at byte " + offset());
+            String got = describe(c);
+            if (got == null) return new IllegalArgumentException("Unexpected byte 0x" + Integer.toHexString(c) + " at byte " + offset());
+            return bindError(expected, got);
+        }
+
+        BindException bindError(String expected, String got) {
+            StringBuilder p = new StringBuilder();
+            for (Object seg : path) {
+                if (seg instanceof Integer idx) p.append('[').append(idx).append(']');
+                else p.append(p.length() == 0 ? "" : ".").append(seg);
+            }
+            return new BindException(p.toString(), "expected " + expected + " but got " + got);
+        }
+
+        private static String describe(int c) {
+            return switch (c) {
+                case '"' -> "string";
+                case '{' -> "object";
+                case '[' -> "array";
+                case 't', 'f' -> "boolean";
+                case 'n' -> "null";
+                default -> (c == '-' || (c >= '0' && c <= '9')) ? "number" : null;
+            };
+        }
+
+        /** True (and consumes it) if the next value is JSON null. */
+        boolean readNull() throws IOException {
+            skipWs();
+            if (peek() != 'n') return false;
+            readLiteral("null");
+            return true;
+        }
+
+        String readStringValue() throws IOException {
+            skipWs();
+            if (peek() != '"') throw bindError("string");
+            return readString();
+        }
+
+        Number readNumberValue(String expected) throws IOException {
+            skipWs();
+            int c = peek();
+            if (c != '-' && (c < '0' || c > '9')) throw bindError(expected);
+            return readNumber();
+        }
+
+        boolean readBooleanValue() throws IOException {
+            skipWs();
+            int c = peek();
+            if (c == 't') { readLiteral("true"); return true; }
+            if (c == 'f') { readLiteral("false"); return false; }
+            throw bindError("boolean");
+        }
+
+        List<Object> readList(Binder element) throws IOException {
+            skipWs();
+            if (peek() != '[') throw bindError("array");
+            pos++;
+            enter();
+            List<Object> a = new ArrayList<>();
+            skipWs();
+            if (peek() == ']') { pos++; depth--; return a; }
+            while (true) {
+                path.add(a.size());
+                a.add(element.read(this));
+                path.remove(path.size() - 1);
+                skipWs();
+                int c = next();
+                if (c == ']') break;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or ']' at byte " + (offset() - 1));
+            }
+            depth--;
+            return a;
+        }
+
+        Object readRecord(RecordCodec codec) throws IOException {
+            skipWs();
+            if (peek() != '{') throw bindError("object");
+            pos++;
+            enter();
+            Object[] args = codec.defaults.clone();
+            skipWs();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWs();
+                    readStringInto();
+                    // compare against component names without materializing the key
+                    int idx = codec.indexOf(sb);
+                    skipWs();
+                    expect(':');
+                    if (idx < 0) {
+                        skipValue();
+                    } else {
+                        path.add(codec.names[idx]);
+                        args[idx] = codec.binders[idx].read(this);
+                        path.remove(path.size() - 1);
+                    }
+                    skipWs();
+                    int c = next();
+                    if (c == '}') break;
+                    if (c != ',') throw new IllegalArgumentException("Expected ',' or '}' at byte " + (offset() - 1));
+                }
+            }
+            depth--;
+            return codec.construct(args);
+        }
+
+        /** Skips an unknown field's value without building it. */
+        private void skipValue() throws IOException {
+            skipWs();
+            int c = peek();
+            switch (c) {
+                case '"' -> { pos++; skipStringRest(); }
+                case '{', '[' -> {
+                    int start = depth;
+                    do {
+                        int d = next();
+                        if (d == '"') skipStringRest();
+                        else if (d == '{' || d == '[') enter();
+                        else if (d == '}' || d == ']') depth--;
+                    } while (depth > start);
+                }
+                case 't' -> readLiteral("true");
+                case 'f' -> readLiteral("false");
+                case 'n' -> readLiteral("null");
+                default -> readNumber();
+            }
+        }
+
+        private void skipStringRest() throws IOException {
+            while (true) {
+                int c = next();
+                if (c == '"') return;
+                if (c == '\\') next();
+            }
+        }
+
+        /**
+         * Integers that fit a long become Integer/Long as in {@link Parser}. Decimals use the exact
+         * fast path (mantissa below 2^53, power of ten up to 22); only other values fall back to
+         * Double.parseDouble on the digits collected in the scratch builder.
+         */
+        private Number readNumber() throws IOException {
+            sb.setLength(0);
+            boolean negative = false;
+            if (peek() == '-') { negative = true; pos++; sb.append('-'); }
+            long mantissa = 0;
+            int digits = 0;
+            boolean overflow = false;
+            int c;
+            while ((c = peek()) >= '0' && c <= '9') {
+                pos++;
+                sb.append((char) c);
+                if (mantissa > (Long.MAX_VALUE - 9) / 10) overflow = true;
+                else mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            }
+            if (digits == 0) throw new IllegalArgumentException("Bad number at byte " + offset());
+
+            boolean isFloat = false;
+            int fractionDigits = 0;
+            if (peek() == '.') {
+                isFloat = true;
+                pos++;
+                sb.append('.');
+                while ((c = peek()) >= '0' && c <= '9') {
+                    pos++;
+                    sb.append((char) c);
+                    if (mantissa > (Long.MAX_VALUE - 9) / 10) overflow = true;
+                    else { mantissa = mantissa * 10 + (c - '0'); fractionDigits++; }
+                }
+            }
+            int exponent = 0;
+            c = peek();
+            if (c == 'e' || c == 'E') {
+                isFloat = true;
+                pos++;
+                sb.append('e');
+                boolean expNegative = false;
+                c = peek();
+                if (c == '+' || c == '-') { expNegative = c == '-'; pos++; sb.append((char) c); }
+                int expDigits = 0;
+                while ((c = peek()) >= '0' && c <= '9') {
+                    pos++;
+                    sb.append((char) c);
+                    if (exponent < 100_000) exponent = exponent * 10 + (c - '0');
+                    expDigits++;
+                }
+                if (expDigits == 0) throw new IllegalArgumentException("Bad number at byte " + offset());
+                if (expNegative) exponent = -exponent;
+            }
+
+            if (!isFloat && !overflow) {
+                long v = negative ? -mantissa : mantissa;
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) return (int) v;
+                return v;
+            }
+            int scale = exponent - fractionDigits;
+            if (!overflow && mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+                double d = scale >= 0 ? mantissa * POW10[scale] : mantissa / POW10[-scale];
+                return negative ? -d : d;
+            }
+            return Double.parseDouble(sb.toString());
+        }
+
+        private void readLiteral(String lit) throws IOException {
+            for (int k = 0; k < lit.length(); k++) {
+                if (next() != lit.charAt(k)) throw new IllegalArgumentException("Expected '" + lit + "' at byte " + (offset() - 1));
+            }
+        }
+    }
+}
+
+
@@ -0,0 +1,142 @@
+package blog.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the spirit of HdrHistogram:
+ * values below 32 ns get a bucket each, above that every power of two is split into
+ * 16 sub-buckets, so any recorded value is known to within 1/16 (6.25%). Covers up to
+ * about 9.7 hours; larger values land in the last bucket.
+ *
+ * Recording is one AtomicLongArray increment plus a LongAdder add. Snapshots read the
+ * buckets without stopping writers, so a snapshot taken under load may be missing
+ * values recorded while it was being copied, but never blocks a recording thread.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;       // sub-buckets per power of two
+    private static final int LINEAR = SUB_COUNT * 2;          // values below this are exact
+    private static final int MAX_SHIFT = 40;
+    static final long MAX_VALUE = ((long) LINEAR << MAX_SHIFT) - 1;
+    private static final int BUCKETS = LINEAR + MAX_SHIFT * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    void recordNanos(long nanos) {
+        long v = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+    }
+
+    Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = counts.get(i);
+            total += c[i];
+        }
+        return new Snapshot(c, total, sum.sum());
+    }
+
+    static int index(long v) {
+        if (v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        // v >>> shift is in [SUB_COUNT, 2 * SUB_COUNT)
+        return LINEAR + (shift - 1) * SUB_COUNT + (int) (v >>> shift) - SUB_COUNT;
+    }
+
+    /** Smallest value that falls into bucket i. */
+    static long lowerBound(int i) {
+        if (i < LINEAR) return i;
+        int shift = (i - LINEAR) / SUB_COUNT + 1;
+        long top = (i - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return top << shift;
+    }
+
+    /** Largest value that falls into bucket i. */
+    static long upperBound(int i) {
+        return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : MAX_VALUE;
+    }
+
+    /** Point-in-time copy; count is the sum of the copied buckets, so it is always consistent with them. */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+
+        private Snapshot(long[] counts, long count, long sumNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+        }
+
+        long count() { return count; }
+
+        long sumNanos() { return sumNanos; }
+
+        /**
+         * Cumulative counts at each bound (ascending, in ns). A bucket is counted once its
+         * whole range is at or below the bound, so values just under a bound may be counted
+         * at the next one (off by at most the bucket width).
+         */
+        long[] cumulative(long[] boundsNanos) {
+            long[] out = new long[boundsNanos.length];
+            long running = 0;
+            int b = 0;
+            for (int i = 0; i < counts.length && b < boundsNanos.length; i++) {
+                while (b < boundsNanos.length && upperBound(i) > boundsNanos[b]) out[b++] = running;
+                running += counts[i];
+            }
+            while (b < boundsNanos.length) out[b++] = running;
+            return out;
+        }
+
+        /** Value at the given quantile (0..1), reported as the upper end of its bucket; 0 if empty. */
+        long percentileNanos(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return MAX_VALUE;
+        }
+
+        long maxNanos() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) return upperBound(i);
+            }
+            return 0;
+        }
+
+        double meanNanos() {
+            return count == 0 ? 0 : (double) sumNanos / count;
+        }
+
+        /**
+         * Coordinated-omission correction as in HdrHistogram: a closed-loop client stuck on
+         * a response of length v didn't send the requests due every expectedInterval in the
+         * meantime, so v also counts as v - interval, v - 2 * interval, ... down to interval.
+         */
+        Snapshot correctedForCoordinatedOmission(long expectedIntervalNanos) {
+            if (expectedIntervalNanos <= 0) return this;
+            long[] c = counts.clone();
+            long total = count;
+            long sum = sumNanos;
+            for (int i = 0; i < counts.length; i++) {
+                long n = counts[i];
+                if (n == 0) continue;
+                long v = lowerBound(i) + (upperBound(i) - lowerBound(i)) / 2;
+                for (long missing = v - expectedIntervalNanos; missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+                    c[index(missing)] += n;
+                    total += n;
+                    sum += missing * n;
+                }
+            }
+            return new Snapshot(c, total, sum);
+        }
+    }
+}
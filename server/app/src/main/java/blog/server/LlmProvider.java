@@ -0,0 +1,39 @@
+package blog.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A chat model behind some API. Implementations own the wire format: they turn the
+ * page's message and history into the provider's request and pull the reply text back
+ * out. Metering, hedging and circuit breaking are added by wrapping one provider in
+ * another, so each layer can be exercised against a local stub.
+ *
+ * turns are earlier {role, text} pairs, oldest first, with role "user" or "model".
+ */
+interface LlmProvider {
+    /** Provider and model, e.g. "gemini:gemini-1.5-flash"; used in cache keys. */
+    String name();
+
+    /**
+     * Starts a call that has to finish by deadlineNanos (System.nanoTime). Fails with
+     * {@link UpstreamException} when the upstream answers without a usable reply.
+     * Cancelling the returned future aborts the call.
+     */
+    CompletableFuture<String> generate(String message, List<String[]> turns, long deadlineNanos);
+
+    /**
+     * Starts a streamed reply and blocks until the upstream has accepted it; timeoutMillis
+     * bounds that wait, not the whole stream.
+     */
+    TextStream stream(String message, List<String[]> turns, long timeoutMillis)
+            throws IOException, InterruptedException, UpstreamException;
+
+    /** Reply text as it arrives. Closing it aborts the upstream call if it is still running. */
+    interface TextStream extends Closeable {
+        /** Next non-empty chunk, or null once the reply is complete. */
+        String next() throws IOException;
+    }
+}
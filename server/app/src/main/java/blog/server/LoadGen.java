@@ -0,0 +1,329 @@
+package blog.server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator replaying a request file against the server, for sizing instances.
+ *
+ * Request files are JSON lines: a string is a static path ({@code "/index.html"}),
+ * an object with "message" is a body for POST /api/chat, and
+ * {@code {"method", "path", "body"}} is any other request. Blank lines and lines
+ * starting with # are skipped. Requests are sent in file order, round robin.
+ *
+ * With --rate the load is open loop: request i is due at start + i / rate whatever
+ * happened to earlier ones, and its latency is measured from that due time, so a stall
+ * in the server (or in this client) shows up in the numbers instead of hiding them.
+ * Without --rate, --concurrency workers each send back to back (closed loop); that
+ * under-reports tail latency, so the report adds HdrHistogram-style corrected
+ * percentiles using the median as the expected interval.
+ *
+ * Without --target, an in-process server is started against {@link StubUpstream},
+ * so runs never spend API quota. Its chat reply cache is off unless CHAT_CACHE_SIZE is
+ * set: a request file repeats a handful of chat bodies, and with the cache on every
+ * replay after the first would be a hit instead of a trip through the upstream path. This is its own entry point rather than a Main
+ * subcommand because Main reads its configuration when the class is initialized,
+ * and the in-process server needs the settings below applied first.
+ *
+ * <pre>
+ * java -cp blog-server.jar blog.server.LoadGen [--requests traffic.jsonl] [--rate 50 | --concurrency 8]
+ *     [--duration 30] [--warmup 5] [--target http://host:port] [--stub-delay-ms 200]
+ * </pre>
+ */
+final class LoadGen {
+    /** One replayable request, built once and reused. */
+    private record Request(String label, HttpRequest http) { }
+
+    private final List<Request> requests;
+    private final HttpClient client;
+    private final LatencyHistogram all = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> byLabel = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> byStatus = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile long measureFrom;
+
+    private LoadGen(List<Request> requests, HttpClient client) {
+        this.requests = requests;
+        this.client = client;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Args a = Args.parse(args);
+        int rate = a.intValue("rate", 0);
+        int concurrency = a.intValue("concurrency", rate > 0 ? 0 : 8);
+        long durationNanos = TimeUnit.SECONDS.toNanos(a.intValue("duration", 30));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(a.intValue("warmup", 5));
+        Duration timeout = Duration.ofMillis(a.intValue("timeout-ms", 60_000));
+        if (rate <= 0 && concurrency <= 0) throw new IllegalArgumentException("need --rate or --concurrency");
+
+        String target = a.value("target", null);
+        // what the report says about the server's reply cache; unknown for a remote target
+        String chatCache = "unknown (remote target)";
+        StubUpstream stub = null;
+        HttpServer server = null;
+        if (target == null) {
+            int delay = a.intValue("stub-delay-ms", 200);
+            stub = StubUpstream.start(StubUpstream.geminiResponse(StubUpstream.DEFAULT_REPLY), delay);
+            server = startLocalServer(stub);
+            target = "http://127.0.0.1:" + server.getAddress().getPort();
+            String size = System.getenv("CHAT_CACHE_SIZE") != null ? System.getenv("CHAT_CACHE_SIZE")
+                    : System.getProperty("CHAT_CACHE_SIZE");
+            chatCache = size.strip().equals("0") ? "off" : "on (CHAT_CACHE_SIZE=" + size.strip() + ")";
+            System.out.println("Target: in-process server, stub Gemini with " + delay + " ms delay");
+        } else {
+            System.out.println("Target: " + target);
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        Path file = requestFile(a.value("requests", null));
+        LoadGen gen = new LoadGen(load(file, URI.create(stripTrailingSlash(target)), timeout), client);
+        System.out.println("Requests: " + file + " (" + gen.requests.size() + " distinct)");
+        System.out.println(rate > 0
+                ? "Mode: open loop, " + rate + " req/s" + (concurrency > 0 ? ", at most " + concurrency + " in flight" : "")
+                : "Mode: closed loop, " + concurrency + " workers");
+        System.out.println("Duration: " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s after "
+                + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " s warmup");
+
+        try {
+            if (rate > 0) gen.runOpenLoop(rate, concurrency, warmupNanos, durationNanos);
+            else gen.runClosedLoop(concurrency, warmupNanos, durationNanos);
+            gen.report(durationNanos, rate <= 0, chatCache);
+        } finally {
+            if (server != null) server.stop(0);
+            if (stub != null) stub.stop();
+        }
+        // the server's executors are non-daemon
+        System.exit(0);
+    }
+
+    /**
+     * Configures Main through system properties (unless the environment already sets them)
+     * so the run measures the server rather than the per-client rate limits or the reply cache.
+     */
+    private static HttpServer startLocalServer(StubUpstream stub) throws IOException {
+        System.setProperty("GEMINI_BASE_URL", stub.baseUrl());
+        defaultProperty("GEMINI_API_KEY", "loadgen");
+        defaultProperty("CHAT_RATE_PER_MINUTE", "1000000000");
+        defaultProperty("CHAT_RATE_BURST", "10000");
+        defaultProperty("HEALTH_RATE_PER_MINUTE", "1000000000");
+        defaultProperty("HEALTH_RATE_BURST", "10000");
+        defaultProperty("CHAT_CACHE_SIZE", "0");
+        Path root = Main.resolveSiteRoot();
+        return Main.start(Main.newStaticHandler(root), 0);
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getenv(key) == null && System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    private void runOpenLoop(int rate, int maxInFlight, long warmupNanos, long durationNanos) throws InterruptedException {
+        Semaphore slots = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        double intervalNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long due = start + (long) (i * intervalNanos);
+                if (due >= end) break;
+                long wait = due - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                // waiting for a slot counts against the request: its clock started at due
+                if (slots != null) slots.acquire();
+                Request r = requests.get((int) (i % requests.size()));
+                workers.execute(() -> {
+                    try {
+                        send(r, due);
+                    } finally {
+                        if (slots != null) slots.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private void runClosedLoop(int concurrency, long warmupNanos, long durationNanos) {
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < concurrency; w++) {
+                // one shared cursor: a worker stuck on a slow request doesn't hold back a fixed slice of the file
+                workers.execute(() -> {
+                    while (System.nanoTime() < end) {
+                        send(requests.get((int) (cursor.getAndIncrement() % requests.size())), System.nanoTime());
+                    }
+                });
+            }
+        }
+    }
+
+    private void send(Request r, long startNanos) {
+        String status;
+        boolean failed;
+        try {
+            HttpResponse<Void> resp = client.send(r.http(), HttpResponse.BodyHandlers.discarding());
+            status = Integer.toString(resp.statusCode());
+            failed = resp.statusCode() >= 400;
+        } catch (IOException e) {
+            status = e.getClass().getSimpleName();
+            failed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (startNanos < measureFrom) return;
+        long latency = System.nanoTime() - startNanos;
+        if (failed) errors.increment();
+        all.recordNanos(latency);
+        byLabel.computeIfAbsent(r.label(), k -> new LatencyHistogram()).recordNanos(latency);
+        byStatus.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+    private void report(long durationNanos, boolean closedLoop, String chatCache) {
+        LatencyHistogram.Snapshot s = all.snapshot();
+        double seconds = durationNanos / 1e9;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Completed %d requests, %d errors, %.1f req/s%n",
+                s.count(), errors.sum(), s.count() / seconds);
+        Map<String, Long> statuses = new TreeMap<>();
+        byStatus.forEach((k, v) -> statuses.put(k, v.sum()));
+        System.out.println("Status: " + statuses);
+        System.out.println("Chat reply cache: " + chatCache);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-36s %8s %9s %9s %9s %9s %9s%n",
+                "latency (ms)", "count", "p50", "p99", "p99.9", "max", "mean");
+        row("all", s);
+        new TreeMap<>(byLabel).forEach((label, h) -> row(label, h.snapshot()));
+        if (closedLoop && s.count() > 0) {
+            long expected = s.percentileNanos(0.5);
+            row("all, corrected (interval = p50)", s.correctedForCoordinatedOmission(expected));
+        }
+    }
+
+    private static void row(String label, LatencyHistogram.Snapshot s) {
+        System.out.printf(Locale.ROOT, "%-36s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", label, s.count(),
+                s.percentileNanos(0.5) / 1e6, s.percentileNanos(0.99) / 1e6, s.percentileNanos(0.999) / 1e6,
+                s.maxNanos() / 1e6, s.meanNanos() / 1e6);
+    }
+
+    /** --requests, else traffic.jsonl next to the server sources. */
+    private static Path requestFile(String given) throws IOException {
+        if (given != null) return Path.of(given);
+        for (Path p : List.of(Path.of("traffic.jsonl"), Path.of("server", "traffic.jsonl"))) {
+            if (Files.exists(p)) return p;
+        }
+        throw new IOException("no --requests file and no traffic.jsonl in the working directory");
+    }
+
+    private static List<Request> load(Path file, URI base, Duration timeout) throws IOException {
+        List<Request> out = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNo++;
+            String l = line.strip();
+            if (!l.isEmpty() && l.charAt(0) == '\uFEFF') l = l.substring(1);
+            if (l.isEmpty() || l.startsWith("#")) continue;
+            Object v;
+            try {
+                v = Json.parse(l);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ":" + lineNo + ": " + e.getMessage(), e);
+            }
+            String method = "GET";
+            String path;
+            Object body = null;
+            if (v instanceof String s) {
+                path = s;
+            } else if (v instanceof Map<?, ?> m && m.containsKey("message")) {
+                method = "POST";
+                path = "/api/chat";
+                body = m;
+            } else if (v instanceof Map<?, ?> m && m.get("path") instanceof String p) {
+                path = p;
+                body = m.get("body");
+                method = m.get("method") instanceof String s ? s.toUpperCase(Locale.ROOT) : (body == null ? "GET" : "POST");
+            } else {
+                throw new IOException(file + ":" + lineNo + ": expected a path, a chat body or {method, path, body}");
+            }
+            HttpRequest.Builder b = HttpRequest.newBuilder(base.resolve(path)).timeout(timeout);
+            if (body != null) {
+                b.header("Content-Type", "application/json; charset=utf-8")
+                        .method(method, HttpRequest.BodyPublishers.ofByteArray(Json.toBytes(body)));
+            } else {
+                b.method(method, HttpRequest.BodyPublishers.noBody());
+            }
+            out.add(new Request(method + " " + path, b.build()));
+        }
+        if (out.isEmpty()) throw new IOException(file + " has no requests");
+        return out;
+    }
+
+    private static String stripTrailingSlash(String s) {
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /** {@code --name value} / {@code --name=value} options shared by the loadgen and stub commands. */
+    static final class Args {
+        private final Map<String, String> values = new HashMap<>();
+
+        static Args parse(String[] args) {
+            Args a = new Args();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) throw new IllegalArgumentException("unexpected argument " + arg);
+                int eq = arg.indexOf('=');
+                if (eq > 0) {
+                    a.values.put(arg.substring(2, eq), arg.substring(eq + 1));
+                } else if (i + 1 < args.length) {
+                    a.values.put(arg.substring(2), args[++i]);
+                } else {
+                    throw new IllegalArgumentException(arg + " needs a value");
+                }
+            }
+            return a;
+        }
+
+        String value(String name, String def) {
+            return values.getOrDefault(name, def);
+        }
+
+        int intValue(String name, int def) {
+            String v = values.get(name);
+            if (v == null) return def;
+            try {
+                return Integer.parseInt(v.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be a number: " + v);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package blog.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive load shedding for routes that call the upstream. Tracks upstream calls in
+ * flight and an exponentially weighted moving average of their latency; once either
+ * crosses its threshold, new requests are turned away early instead of queueing behind
+ * a degraded upstream. While latency is high, one probe at a time is still let through
+ * so the average can recover.
+ */
+final class LoadShedder {
+    private static final double ALPHA = 0.2;
+
+    private final int maxInFlight;
+    private final long latencyThresholdMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // EWMA in milliseconds, stored as double bits so it can be updated with CAS
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    /** A threshold of 0 disables that check. */
+    LoadShedder(int maxInFlight, long latencyThresholdMillis) {
+        this.maxInFlight = maxInFlight;
+        this.latencyThresholdMillis = latencyThresholdMillis;
+    }
+
+    boolean shouldShed() {
+        int n = inFlight.get();
+        if (maxInFlight > 0 && n >= maxInFlight) return true;
+        return latencyThresholdMillis > 0 && n > 0 && latencyMillis() > latencyThresholdMillis;
+    }
+
+    /** Call before an upstream request; pass the returned start time to {@link #end(long)}. */
+    long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void end(long startNanos) {
+        inFlight.decrementAndGet();
+        double sample = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos) / 1000.0;
+        while (true) {
+            long bits = ewmaBits.get();
+            double old = Double.longBitsToDouble(bits);
+            double next = old == 0 ? sample : old + ALPHA * (sample - old);
+            if (ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) return;
+        }
+    }
+
+    int inFlight() { return inFlight.get(); }
+
+    double latencyMillis() { return Double.longBitsToDouble(ewmaBits.get()); }
+}
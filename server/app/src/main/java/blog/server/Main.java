@@ -0,0 +1,1485 @@
+package blog.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-binary server for:
+ * - Serving static files (your blog HTML) from the repo root
+ * - Providing /api/chat proxy to Gemini (API key stays on server)
+ *
+ * Run:
+ *   cd server
+ *   mvn -q package
+ *   setx GEMINI_API_KEY "YOUR_KEY"
+ *   java -jar app/target/blog-server.jar
+ *
+ * Load testing (see LoadGen): java -cp app/target/blog-server.jar blog.server.LoadGen --rate 50
+ */
+public final class Main {
+    private static final int PORT = intEnv("PORT", 8000);
+    private static final String GEMINI_API_KEY = env("GEMINI_API_KEY");
+    private static final String GEMINI_MODEL = envOr("GEMINI_MODEL", "gemini-1.5-flash");
+    // point at a local stub server for testing; no trailing slash
+    private static final String GEMINI_BASE_URL = stripTrailingSlash(
+            envOr("GEMINI_BASE_URL", "https://generativelanguage.googleapis.com/v1beta"));
+    private static final int MAX_INPUT_CHARS = intEnv("MAX_INPUT_CHARS", 1200);
+    private static final int SEARCH_MAX_QUERY_CHARS = 200;
+    // upstream history window: the most recent turns, at most this many and this many characters
+    private static final int MAX_HISTORY = intEnv("MAX_HISTORY", 20);
+    private static final int HISTORY_MAX_CHARS = intEnv("HISTORY_MAX_CHARS", 8000);
+    private static final int MAX_BODY_BYTES = intEnv("MAX_BODY_BYTES", 64 * 1024);
+    private static final int MAX_JSON_DEPTH = intEnv("MAX_JSON_DEPTH", 16);
+    private static final int ASSET_CACHE_BYTES = intEnv("ASSET_CACHE_BYTES", 32 * 1024 * 1024);
+    private static final int ASSET_CACHE_MAX_ENTRY_BYTES = intEnv("ASSET_CACHE_MAX_ENTRY_BYTES", 1024 * 1024);
+    private static final int STATIC_STREAM_MIN_BYTES = intEnv("STATIC_STREAM_MIN_BYTES", 256 * 1024);
+    // prebuilt site bundle (see AssetBundle); when set, static files come only from it
+    private static final String ASSET_BUNDLE = env("ASSET_BUNDLE");
+    // rewrite pages to fingerprinted asset URLs (bundles are rewritten when built)
+    private static final boolean STATIC_FINGERPRINTS = Boolean.parseBoolean(envOr("STATIC_FINGERPRINTS", "true"));
+    // ?w=<width>[&q=<quality>] on JPEG/PNG assets; only these values are accepted (empty IMAGE_WIDTHS turns it off)
+    private static final int[] IMAGE_WIDTHS = intListEnv("IMAGE_WIDTHS", "160,320,480,640,960,1280");
+    private static final int[] IMAGE_QUALITIES = intListEnv("IMAGE_QUALITIES", "50,75,90");
+    private static final int IMAGE_DEFAULT_QUALITY = intEnv("IMAGE_DEFAULT_QUALITY", 75);
+    private static final String IMAGE_CACHE_DIR = envOr("IMAGE_CACHE_DIR",
+            Path.of(System.getProperty("java.io.tmpdir"), "blog-image-variants").toString());
+    private static final int IMAGE_CACHE_BYTES = intEnv("IMAGE_CACHE_BYTES", 256 * 1024 * 1024);
+    private static final int IMAGE_RESIZE_CONCURRENCY = intEnv("IMAGE_RESIZE_CONCURRENCY",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // how often the search index re-stats the site's pages for edits
+    private static final int SEARCH_RECHECK_MS = intEnv("SEARCH_RECHECK_MS", 2000);
+    // blog passages matching a chat question are sent along with it (0 turns it off)
+    private static final int CHAT_GROUNDING_PASSAGES = intEnv("CHAT_GROUNDING_PASSAGES", 3);
+    // continuous JFR recording of the request-phase events (JfrEvents), kept as a rolling buffer
+    private static final boolean JFR_RECORDING = Boolean.parseBoolean(envOr("JFR_RECORDING", "false"));
+    private static final int JFR_MAX_AGE_MINUTES = intEnv("JFR_MAX_AGE_MINUTES", 30);
+    private static final int JFR_MAX_BYTES = intEnv("JFR_MAX_BYTES", 64 * 1024 * 1024);
+    private static final String JFR_DUMP_ON_EXIT = env("JFR_DUMP_ON_EXIT");
+    // JSON-lines access log written off the request path (unset = off); rotated at ACCESS_LOG_MAX_BYTES
+    private static final String ACCESS_LOG = env("ACCESS_LOG");
+    private static final int ACCESS_LOG_BUFFER = intEnv("ACCESS_LOG_BUFFER", 8192);
+    private static final int ACCESS_LOG_MAX_BYTES = intEnv("ACCESS_LOG_MAX_BYTES", 64 * 1024 * 1024);
+    private static final int ACCESS_LOG_FILES = intEnv("ACCESS_LOG_FILES", 5);
+    private static final int COMPRESS_MIN_BYTES = intEnv("COMPRESS_MIN_BYTES", 1024);
+    // "virtual" (one virtual thread per request) or "fixed" (platform thread pool of SERVER_THREADS)
+    private static final String SERVER_EXECUTOR = envOr("SERVER_EXECUTOR", "virtual");
+    private static final int SERVER_THREADS = intEnv("SERVER_THREADS", 32);
+    // "jdk" (com.sun.net.httpserver) or "nio" (NioHttpServer with NIO_EVENT_LOOPS selector threads)
+    private static final String HTTP_ENGINE = envOr("HTTP_ENGINE", "jdk");
+    private static final int NIO_EVENT_LOOPS = intEnv("NIO_EVENT_LOOPS",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    private static final int STATIC_MAX_CONCURRENCY = intEnv("STATIC_MAX_CONCURRENCY", 128);
+    private static final int STATIC_MAX_QUEUE = intEnv("STATIC_MAX_QUEUE", 512);
+    private static final int API_MAX_CONCURRENCY = intEnv("API_MAX_CONCURRENCY", 16);
+    private static final int API_MAX_QUEUE = intEnv("API_MAX_QUEUE", 32);
+    private static final int QUEUE_TIMEOUT_MS = intEnv("QUEUE_TIMEOUT_MS", 10_000);
+    private static final int RETRY_AFTER_SECONDS = intEnv("RETRY_AFTER_SECONDS", 2);
+
+    private static final int CHAT_CACHE_SIZE = intEnv("CHAT_CACHE_SIZE", 256);
+    private static final int CHAT_CACHE_TTL_SECONDS = intEnv("CHAT_CACHE_TTL_SECONDS", 600);
+
+    private static final ChatCache CHAT_CACHE = new ChatCache(CHAT_CACHE_SIZE, CHAT_CACHE_TTL_SECONDS * 1000L);
+
+    // server-side conversations for clients that send a sessionId instead of their history
+    private static final int SESSION_STORE_BYTES = intEnv("SESSION_STORE_BYTES", 16 * 1024 * 1024);
+    private static final int SESSION_IDLE_SECONDS = intEnv("SESSION_IDLE_SECONDS", 1800);
+    private static final SessionStore SESSIONS = new SessionStore(SESSION_STORE_BYTES, SESSION_IDLE_SECONDS * 1000L,
+            MAX_HISTORY, HISTORY_MAX_CHARS);
+
+    // upper bound for a whole API request (body read, upstream call, serialization);
+    // clients may ask for less via the X-Request-Timeout-Ms header
+    private static final int REQUEST_DEADLINE_MS = intEnv("REQUEST_DEADLINE_MS", 30_000);
+    private static final String DEADLINE_HEADER = "X-Request-Timeout-Ms";
+    private static final String DEADLINE_ATTR = "blog.deadline";
+    private static final String ASYNC_ATTR = "blog.async";
+
+    // per-client token buckets, configured per route
+    private static final int CHAT_RATE_PER_MINUTE = intEnv("CHAT_RATE_PER_MINUTE", 20);
+    private static final int CHAT_RATE_BURST = intEnv("CHAT_RATE_BURST", 5);
+    private static final int HEALTH_RATE_PER_MINUTE = intEnv("HEALTH_RATE_PER_MINUTE", 120);
+    private static final int HEALTH_RATE_BURST = intEnv("HEALTH_RATE_BURST", 30);
+    private static final int SEARCH_RATE_PER_MINUTE = intEnv("SEARCH_RATE_PER_MINUTE", 120);
+    private static final int SEARCH_RATE_BURST = intEnv("SEARCH_RATE_BURST", 30);
+    private static final int RATE_IDLE_SECONDS = intEnv("RATE_IDLE_SECONDS", 600);
+    // only enable behind a reverse proxy that sets X-Forwarded-For, otherwise clients can spoof it
+    private static final boolean TRUST_PROXY = Boolean.parseBoolean(envOr("TRUST_PROXY", "false"));
+    private static final int SHED_MAX_UPSTREAM_IN_FLIGHT = intEnv("SHED_MAX_UPSTREAM_IN_FLIGHT", 64);
+    private static final int SHED_LATENCY_MS = intEnv("SHED_LATENCY_MS", 15_000);
+
+    private static final LoadShedder UPSTREAM_LOAD = new LoadShedder(SHED_MAX_UPSTREAM_IN_FLIGHT, SHED_LATENCY_MS);
+
+    // a second upstream call is started once the first has run longer than this percentile
+    // of recent latencies (0 = no hedging); the breaker opens after that many failures in a row
+    private static final int HEDGE_PERCENTILE = intEnv("HEDGE_PERCENTILE", 95);
+    private static final int HEDGE_MIN_DELAY_MS = intEnv("HEDGE_MIN_DELAY_MS", 100);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = intEnv("CIRCUIT_FAILURE_THRESHOLD", 5);
+    private static final int CIRCUIT_OPEN_SECONDS = intEnv("CIRCUIT_OPEN_SECONDS", 30);
+
+    // completes async exchanges off the HttpClient / timer threads
+    private static final ExecutorService RESPONDER = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(15))
+            .build();
+
+    // served at /api/metrics; when set, scrapes must send "Authorization: Bearer <token>"
+    private static final String METRICS_TOKEN = env("METRICS_TOKEN");
+
+    // Prometheus metrics; hot paths look up their labelled series once and keep them
+    private static final Metrics METRICS = new Metrics();
+    private static final Metrics.Counter HTTP_REQUESTS = METRICS.counter("blog_http_requests_total",
+            "Requests by route and status class.", "route", "status");
+    private static final Metrics.Histogram HTTP_DURATION = METRICS.histogram("blog_http_request_duration_seconds",
+            "Time from handling start until the response is complete.", Metrics.HTTP_BUCKETS, "route");
+    private static final Metrics.Histogram HTTP_OVERHEAD = METRICS.histogram("blog_http_overhead_seconds",
+            "Request time not spent waiting for the Gemini reply (/api/chat).", Metrics.HTTP_BUCKETS, "route");
+    private static final Metrics.Counter UPSTREAM_REQUESTS = METRICS.counter("blog_upstream_requests_total",
+            "Gemini calls by method and outcome (ok, error, timeout, cancelled).", "call", "outcome");
+    private static final Metrics.Histogram UPSTREAM_DURATION = METRICS.histogram("blog_upstream_duration_seconds",
+            "Gemini call time, from sending the request until the response body is read.", Metrics.HTTP_BUCKETS, "call");
+    private static final Metrics.Histogram JSON_DURATION = METRICS.histogram("blog_json_duration_seconds",
+            "Time spent in Json by phase (parse includes reading the request body).", Metrics.FAST_BUCKETS, "phase");
+    private static final LatencyHistogram JSON_PARSE = JSON_DURATION.labels("parse");
+    private static final LatencyHistogram JSON_SERIALIZE = JSON_DURATION.labels("serialize");
+    private static final LatencyHistogram JSON_UPSTREAM_ENCODE = JSON_DURATION.labels("upstream_encode");
+    private static final LatencyHistogram JSON_UPSTREAM_DECODE = JSON_DURATION.labels("upstream_decode");
+
+    // Gemini, metered per attempt, behind hedging and a circuit breaker
+    private static final ResilientProvider LLM = new ResilientProvider(
+            new MeteredProvider(new GeminiProvider(HTTP, GEMINI_BASE_URL, GEMINI_MODEL, GEMINI_API_KEY,
+                    JSON_UPSTREAM_ENCODE, JSON_UPSTREAM_DECODE)),
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_SECONDS * 1000L),
+            HEDGE_PERCENTILE / 100.0, HEDGE_MIN_DELAY_MS);
+    private static final Metrics.Callback BULKHEAD_IN_FLIGHT = METRICS.callback("blog_bulkhead_in_flight",
+            "Requests holding a slot.", "gauge", "bulkhead");
+    private static final Metrics.Callback BULKHEAD_QUEUED = METRICS.callback("blog_bulkhead_queued",
+            "Requests waiting for a slot.", "gauge", "bulkhead");
+    // time the exchange spent waiting for the upstream reply, set by handlers that call it
+    private static final String UPSTREAM_WAIT_ATTR = "blog.upstreamWait";
+
+    // resized variants live on disk; the 8 MiB is the in-memory cache of the hot ones
+    private static final ImageVariants IMAGES = IMAGE_WIDTHS.length == 0 ? null
+            : new ImageVariants(Path.of(IMAGE_CACHE_DIR), IMAGE_CACHE_BYTES, IMAGE_WIDTHS, IMAGE_QUALITIES,
+                    IMAGE_DEFAULT_QUALITY, IMAGE_RESIZE_CONCURRENCY, 8L * 1024 * 1024);
+
+    // filled by start() from whatever the static handler serves
+    private static final SearchIndex SEARCH = new SearchIndex(SEARCH_RECHECK_MS);
+    private static final LongAdder GROUNDED_CHATS = new LongAdder();
+
+    private static final AccessLog ACCESS = ACCESS_LOG == null || ACCESS_LOG.isBlank() ? null
+            : new AccessLog(Path.of(ACCESS_LOG), ACCESS_LOG_BUFFER, ACCESS_LOG_MAX_BYTES, ACCESS_LOG_FILES);
+
+    static {
+        METRICS.callback("blog_upstream_in_flight", "Gemini calls in flight.", "gauge")
+                .register(UPSTREAM_LOAD::inFlight);
+        METRICS.callback("blog_upstream_latency_ewma_seconds", "Moving average of Gemini latency used for load shedding.", "gauge")
+                .register(() -> UPSTREAM_LOAD.latencyMillis() / 1000.0);
+        Metrics.Callback cache = METRICS.callback("blog_chat_cache_lookups_total",
+                "Chat cache lookups by result.", "counter", "result");
+        cache.register(CHAT_CACHE::hits, "hit");
+        cache.register(CHAT_CACHE::misses, "miss");
+        cache.register(CHAT_CACHE::coalesced, "coalesced");
+        METRICS.callback("blog_chat_sessions", "Conversations held in the session store.", "gauge")
+                .register(SESSIONS::size);
+        METRICS.callback("blog_chat_session_bytes", "Approximate heap used by the session store.", "gauge")
+                .register(SESSIONS::bytes);
+        METRICS.callback("blog_upstream_circuit_state", "Circuit breaker state: 0 closed, 1 open, 2 half-open.", "gauge")
+                .register(() -> LLM.breaker().state().ordinal());
+        METRICS.callback("blog_upstream_circuit_rejections_total", "Upstream calls refused by the open circuit breaker.", "counter")
+                .register(() -> LLM.breaker().rejected());
+        Metrics.Callback hedges = METRICS.callback("blog_upstream_hedges_total",
+                "Hedged second attempts sent, and how many of them answered first.", "counter", "result");
+        hedges.register(LLM::hedges, "sent");
+        hedges.register(LLM::hedgeWins, "won");
+        METRICS.callback("blog_upstream_hedge_delay_seconds", "Current delay before a hedged attempt (0 = not hedging).", "gauge")
+                .register(() -> LLM.hedgeDelayNanos() / 1e9);
+        if (IMAGES != null) {
+            Metrics.Callback images = METRICS.callback("blog_image_variants_total",
+                    "Resized image requests by result.", "counter", "result");
+            images.register(IMAGES::hits, "cached");
+            images.register(IMAGES::resized, "resized");
+            images.register(IMAGES::coalesced, "coalesced");
+            METRICS.callback("blog_image_variant_disk_bytes", "Bytes of resized images kept on disk.", "gauge")
+                    .register(IMAGES::diskBytes);
+        }
+        METRICS.callback("blog_search_pages", "Pages in the search index.", "gauge").register(SEARCH::pages);
+        METRICS.callback("blog_search_passages", "Passages in the search index.", "gauge").register(SEARCH::passages);
+        METRICS.callback("blog_chat_grounded_total", "Chat questions sent upstream with blog passages attached.", "counter")
+                .register(GROUNDED_CHATS::sum);
+        if (ACCESS != null) {
+            Metrics.Callback access = METRICS.callback("blog_access_log_records_total",
+                    "Access log records by outcome; dropped means the writer fell behind and the ring was full.",
+                    "counter", "result");
+            access.register(ACCESS::written, "written");
+            access.register(ACCESS::dropped, "dropped");
+            ACCESS.start();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (ASSET_BUNDLE != null && !ASSET_BUNDLE.isBlank()) {
+            long t = System.nanoTime();
+            AssetBundle bundle = AssetBundle.open(Path.of(ASSET_BUNDLE));
+            start(new StaticHandler(bundle), PORT);
+            System.out.println("Server running at http://localhost:" + PORT + "/");
+            System.out.println("Serving static files from bundle: " + bundle.file() + " (" + bundle.size() + " files, "
+                    + (bundle.bytes() / 1024) + " KiB, mapped in " + (System.nanoTime() - t) / 1_000_000 + " ms)");
+        } else {
+            Path siteRoot = resolveSiteRoot();
+            AssetCache assets = newAssetCache(siteRoot);
+            boolean watching = assets.startWatching();
+            start(new StaticHandler(siteRoot, assets), PORT);
+            System.out.println("Server running at http://localhost:" + PORT + "/");
+            System.out.println("Serving static files from: " + siteRoot);
+            System.out.println("Asset cache: " + (ASSET_CACHE_BYTES / 1024) + " KiB, "
+                    + (watching ? "invalidated by file watcher" : "revalidated by mtime"));
+        }
+        if (JFR_RECORDING) {
+            Path dump = JFR_DUMP_ON_EXIT == null || JFR_DUMP_ON_EXIT.isBlank() ? null : Path.of(JFR_DUMP_ON_EXIT);
+            JfrEvents.startRecording(Duration.ofMinutes(JFR_MAX_AGE_MINUTES), JFR_MAX_BYTES, dump);
+            System.out.println("JFR recording '" + JfrEvents.RECORDING_NAME + "': last " + JFR_MAX_AGE_MINUTES + " min / "
+                    + (JFR_MAX_BYTES / (1024 * 1024)) + " MiB, dump with: jcmd " + ProcessHandle.current().pid()
+                    + " JFR.dump name=" + JfrEvents.RECORDING_NAME + " filename=incident.jfr");
+        }
+        System.out.println("HTTP engine: " + (isNioEngine() ? "nio, " + NIO_EVENT_LOOPS + " event loops" : "jdk"));
+        System.out.println("Executor: " + SERVER_EXECUTOR + ", limits api=" + API_MAX_CONCURRENCY + "+" + API_MAX_QUEUE
+                + " static=" + STATIC_MAX_CONCURRENCY + "+" + STATIC_MAX_QUEUE);
+        System.out.println("Search index: " + SEARCH.pages() + " pages, " + SEARCH.passages() + " passages");
+        System.out.println("Gemini model: " + GEMINI_MODEL + " @ " + GEMINI_BASE_URL);
+        System.out.println("Gemini key configured: " + (GEMINI_API_KEY != null && !GEMINI_API_KEY.isBlank()));
+    }
+
+    static AssetCache newAssetCache(Path siteRoot) {
+        return new AssetCache(siteRoot, ASSET_CACHE_BYTES, ASSET_CACHE_MAX_ENTRY_BYTES,
+                STATIC_STREAM_MIN_BYTES, StaticHandler::contentType);
+    }
+
+    /**
+     * The JDK server writes response headers and body separately and leaves Nagle on, so
+     * on keep-alive connections the body can wait ~40 ms for the client's delayed ACK.
+     * Read once, when the first HttpServer in the process is created.
+     */
+    static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /** Static files from ASSET_BUNDLE when it is set, else from siteRoot through an asset cache. */
+    static StaticHandler newStaticHandler(Path siteRoot) throws IOException {
+        if (ASSET_BUNDLE != null && !ASSET_BUNDLE.isBlank()) return new StaticHandler(AssetBundle.open(Path.of(ASSET_BUNDLE)));
+        return new StaticHandler(siteRoot, newAssetCache(siteRoot));
+    }
+
+    /** Binds all routes and starts serving; port 0 picks a free port (see the returned server's address). */
+    static HttpServer start(StaticHandler statics, int port) throws IOException {
+        enableNoDelay();
+        // search and chat grounding cover exactly the pages this handler serves
+        if (statics.bundle != null) SEARCH.indexBundle(statics.bundle);
+        else SEARCH.indexDirectory(statics.root, statics.cache);
+        InetSocketAddress addr = new InetSocketAddress("0.0.0.0", port);
+        // the NIO engine only has to hold what JsonHandler reads to detect an oversized body
+        HttpServer server = isNioEngine()
+                ? NioHttpServer.create(addr, 0, NIO_EVENT_LOOPS, MAX_BODY_BYTES + 1)
+                : HttpServer.create(addr, 0);
+        Bulkhead apiLimit = new Bulkhead("api", API_MAX_CONCURRENCY, API_MAX_QUEUE, QUEUE_TIMEOUT_MS);
+        Bulkhead staticLimit = new Bulkhead("static", STATIC_MAX_CONCURRENCY, STATIC_MAX_QUEUE, QUEUE_TIMEOUT_MS);
+
+        RateLimiter chatRate = new RateLimiter("chat", CHAT_RATE_PER_MINUTE, CHAT_RATE_BURST, RATE_IDLE_SECONDS * 1000L);
+        RateLimiter healthRate = new RateLimiter("health", HEALTH_RATE_PER_MINUTE, HEALTH_RATE_BURST, RATE_IDLE_SECONDS * 1000L);
+        RateLimiter searchRate = new RateLimiter("search", SEARCH_RATE_PER_MINUTE, SEARCH_RATE_BURST, RATE_IDLE_SECONDS * 1000L);
+
+        BULKHEAD_IN_FLIGHT.register(apiLimit::inFlight, apiLimit.name());
+        BULKHEAD_QUEUED.register(apiLimit::queued, apiLimit.name());
+        BULKHEAD_IN_FLIGHT.register(staticLimit::inFlight, staticLimit.name());
+        BULKHEAD_QUEUED.register(staticLimit::queued, staticLimit.name());
+
+        // API routes
+        route(server, "/api/health", new LimitedHandler(apiLimit, true, new JsonHandler<>(null, healthRate, null, (ex, body) -> {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("ok", true);
+            out.put("model", GEMINI_MODEL);
+            out.put("hasKey", GEMINI_API_KEY != null && !GEMINI_API_KEY.isBlank());
+            out.put("chatCache", CHAT_CACHE.stats());
+            Map<String, Object> upstream = new LinkedHashMap<>();
+            upstream.put("inFlight", UPSTREAM_LOAD.inFlight());
+            upstream.put("latencyMs", Math.round(UPSTREAM_LOAD.latencyMillis()));
+            upstream.put("circuit", LLM.breaker().state().name().toLowerCase(Locale.ROOT));
+            out.put("upstream", upstream);
+            return out;
+        })));
+        route(server, "/api/chat", new LimitedHandler(apiLimit, true, new JsonHandler<>(ChatRequest.class, chatRate, UPSTREAM_LOAD, Main::handleChat)));
+        route(server, "/api/chat/stream", new LimitedHandler(apiLimit, true,
+                new JsonHandler<>(ChatRequest.class, chatRate, UPSTREAM_LOAD, Main::handleChatStream)));
+        route(server, "/api/search", new LimitedHandler(apiLimit, true, new JsonHandler<>(null, searchRate, null, Main::handleSearch)));
+        route(server, "/api/metrics", Main::handleMetrics);
+
+        // Static handler for everything else
+        route(server, "/", new LimitedHandler(staticLimit, false, statics));
+
+        // the default (null) executor runs every exchange on the single dispatcher thread,
+        // so one slow upstream call would stall static files behind it
+        server.setExecutor(newExecutor());
+        server.start();
+        return server;
+    }
+
+    private static boolean isNioEngine() {
+        return HTTP_ENGINE.equalsIgnoreCase("nio");
+    }
+
+    private static void route(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, new MeteredHandler(path, handler));
+    }
+
+    private static ExecutorService newExecutor() {
+        if (SERVER_EXECUTOR.equalsIgnoreCase("fixed")) {
+            return Executors.newFixedThreadPool(Math.max(1, SERVER_THREADS));
+        }
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Non-blocking: returns a future that JsonHandler completes the exchange with, so no
+     * request thread waits on Gemini. The whole call must finish within the request's deadline.
+     */
+    private static Object handleChat(HttpExchange ex, ChatRequest body) {
+        Map<String, Object> invalid = validateChat(ex, body);
+        if (invalid != null) return invalid;
+
+        long deadline = deadline(ex);
+        long budget = remainingMillis(deadline);
+        if (budget <= 0) return error("Hết thời gian xử lý yêu cầu.", 504);
+
+        String message = safeTrim(body.message());
+        Conversation conv = conversation(body);
+        List<String[]> turns = conv.turns();
+        // the cache key covers the passages too, so an edited article isn't answered from before the edit
+        String prompt = grounded(message);
+        String key = ChatCache.key(LLM.name(), prompt, turns);
+        long waitStart = System.nanoTime();
+        // the call is shared with identical requests that join it, so it runs under the server's
+        // deadline, not this client's; each caller still stops waiting at its own budget below
+        long sharedDeadline = waitStart + TimeUnit.MILLISECONDS.toNanos(REQUEST_DEADLINE_MS);
+        return CHAT_CACHE.getOrLoad(key, () -> LLM.generate(prompt, turns, sharedDeadline))
+                .orTimeout(budget, TimeUnit.MILLISECONDS)
+                .handle((reply, err) -> {
+                    ex.setAttribute(UPSTREAM_WAIT_ATTR, System.nanoTime() - waitStart);
+                    if (err != null) return upstreamError(ex, err);
+                    Map<String, Object> out = new LinkedHashMap<>();
+                    out.put("ok", true);
+                    out.put("reply", reply);
+                    if (conv.sessionId() != null) {
+                        SESSIONS.append(conv.sessionId(), message, reply);
+                        out.put("sessionId", conv.sessionId());
+                        // lets a client whose session expired resend its transcript as history
+                        if (conv.newSession()) out.put("newSession", true);
+                    }
+                    return out;
+                });
+    }
+
+    private static String upstreamOutcome(Throwable err) {
+        if (err == null) return "ok";
+        Throwable cause = unwrap(err);
+        if (cause instanceof CancellationException) return "cancelled";
+        return cause instanceof TimeoutException || cause instanceof HttpTimeoutException ? "timeout" : "error";
+    }
+
+    private static void recordUpstream(String call, long startedNanos, String outcome) {
+        UPSTREAM_DURATION.labels(call).recordNanos(System.nanoTime() - startedNanos);
+        UPSTREAM_REQUESTS.labels(call, outcome).increment();
+    }
+
+    private static Throwable unwrap(Throwable err) {
+        Throwable cause = err;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static Map<String, Object> upstreamError(HttpExchange ex, Throwable err) {
+        Throwable cause = unwrap(err);
+        if (cause instanceof UpstreamException u) {
+            return error(u.getMessage(), 502, u.raw() == null ? null : Map.of("raw", u.raw()));
+        }
+        if (cause instanceof CircuitBreaker.OpenException open) {
+            ex.getResponseHeaders().set("Retry-After", Long.toString(Math.max(1, (open.retryAfterMillis() + 999) / 1000)));
+            return error(open.getMessage(), 503);
+        }
+        if (cause instanceof TimeoutException || cause instanceof HttpTimeoutException) {
+            return error("Gemini phản hồi quá lâu, vui lòng thử lại.", 504);
+        }
+        if (cause instanceof IOException) {
+            String detail = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+            return error("Không kết nối được Gemini: " + detail, 502);
+        }
+        return error("Server error: " + cause.getMessage(), 500);
+    }
+
+    /** Deadline (System.nanoTime) JsonHandler stamped on the exchange when the request arrived. */
+    private static long deadline(HttpExchange ex) {
+        Object d = ex.getAttribute(DEADLINE_ATTR);
+        return (d instanceof Long l) ? l : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_DEADLINE_MS);
+    }
+
+    private static long remainingMillis(long deadline) {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Same input as /api/chat, but forwards Gemini's streamed chunks as Server-Sent Events:
+     * one {@code data: {"text": "..."}} event per chunk, then {@code event: done}
+     * (or {@code event: error}). Errors before the stream starts are plain JSON responses.
+     */
+    private static Map<String, Object> handleChatStream(HttpExchange ex, ChatRequest body) throws Exception {
+        Map<String, Object> invalid = validateChat(ex, body);
+        if (invalid != null) return invalid;
+
+        // the upstream must answer (send its headers) within what is left of the request's deadline
+        long budget = remainingMillis(deadline(ex));
+        if (budget <= 0) return error("Hết thời gian xử lý yêu cầu.", 504);
+
+        String message = safeTrim(body.message());
+        Conversation conv = conversation(body);
+        LlmProvider.TextStream upstream;
+        try {
+            upstream = LLM.stream(grounded(message), conv.turns(), budget);
+        } catch (IOException | UpstreamException e) {
+            return upstreamError(ex, e);
+        }
+        // closing the upstream stream cancels the Gemini request, including when the browser goes away
+        try (upstream) {
+            Headers h = ex.getResponseHeaders();
+            h.set("Content-Type", "text/event-stream; charset=utf-8");
+            h.set("Cache-Control", "no-store");
+            h.set("X-Accel-Buffering", "no"); // keep reverse proxies from buffering the stream
+            ex.sendResponseHeaders(200, 0);
+            OutputStream out = ex.getResponseBody();
+            StringBuilder reply = new StringBuilder();
+            try {
+                String text;
+                while ((text = upstream.next()) != null) {
+                    writeSse(out, null, Map.of("text", text));
+                    reply.append(text);
+                }
+                if (!reply.isEmpty()) {
+                    Map<String, Object> done = new LinkedHashMap<>();
+                    done.put("ok", true);
+                    if (conv.sessionId() != null) {
+                        SESSIONS.append(conv.sessionId(), message, reply.toString());
+                        done.put("sessionId", conv.sessionId());
+                        if (conv.newSession()) done.put("newSession", true);
+                    }
+                    writeSse(out, "done", done);
+                } else {
+                    writeSse(out, "error", error("Không lấy được nội dung trả lời từ Gemini.", 502));
+                }
+            } catch (IOException e) {
+                // either side broke; tell the client if it is still listening
+                try {
+                    writeSse(out, "error", error("Luồng trả lời bị gián đoạn.", 502));
+                } catch (IOException ignored) {
+                    // client disconnected
+                }
+            } finally {
+                try { out.close(); } catch (IOException ignored) { }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The question with the blog passages that match it placed in front, so the model
+     * answers from the articles where they cover it. Only the question is kept in history.
+     */
+    private static String grounded(String message) {
+        if (CHAT_GROUNDING_PASSAGES <= 0) return message;
+        List<SearchIndex.Hit> hits = SEARCH.context(message, CHAT_GROUNDING_PASSAGES);
+        if (hits.isEmpty()) return message;
+        GROUNDED_CHATS.increment();
+        StringBuilder sb = new StringBuilder(message.length() + 2048);
+        sb.append("Các đoạn liên quan trích từ blog (chỉ dùng nếu phù hợp; khi dùng, ghi kèm đường dẫn bài viết):\n");
+        for (int i = 0; i < hits.size(); i++) {
+            SearchIndex.Hit h = hits.get(i);
+            sb.append("\n[").append(i + 1).append("] ").append(h.title());
+            if (!h.heading().equals(h.title())) sb.append(" – ").append(h.heading());
+            sb.append(" (").append(h.url()).append(")\n").append(h.text()).append('\n');
+        }
+        return sb.append("\nCâu hỏi: ").append(message).toString();
+    }
+
+    /** GET /api/search?q=...&limit=N: the best passage of each matching page, best first. */
+    private static Map<String, Object> handleSearch(HttpExchange ex, Object body) {
+        if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            return error("Method not allowed", 405);
+        }
+        String rawQuery = ex.getRequestURI().getRawQuery();
+        String q;
+        int limit;
+        try {
+            q = safeTrim(queryParam(rawQuery, "q"));
+            String l = queryParam(rawQuery, "limit");
+            limit = l == null ? 5 : (int) Math.max(1, Math.min(20, parseLongOr(l, 5)));
+        } catch (IllegalArgumentException e) {
+            return error("Tham số tìm kiếm không hợp lệ.", 400);
+        }
+        if (q == null || q.isBlank()) return error("Bạn chưa nhập từ khoá.", 400);
+        if (q.length() > SEARCH_MAX_QUERY_CHARS) {
+            return error("Từ khoá quá dài (tối đa " + SEARCH_MAX_QUERY_CHARS + " ký tự).", 400);
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (SearchIndex.Hit h : SEARCH.search(q, limit)) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("url", h.url());
+            r.put("title", h.title());
+            r.put("heading", h.heading());
+            r.put("snippet", h.snippet());
+            r.put("score", Math.round(h.score() * 1000) / 1000.0);
+            results.add(r);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("ok", true);
+        out.put("query", q);
+        out.put("results", results);
+        return out;
+    }
+
+    /** Decoded value of the first name=value pair in a raw query string, or null. */
+    private static String queryParam(String rawQuery, String name) {
+        if (rawQuery == null) return null;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (key.equals(name)) return URLDecoder.decode(eq < 0 ? "" : pair.substring(eq + 1), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    private static final byte[] SSE_DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SSE_END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static void writeSse(OutputStream out, String event, Object data) throws IOException {
+        if (event != null) out.write(("event: " + event + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(SSE_DATA);
+        Json.write(data, out);
+        out.write(SSE_END);
+        out.flush();
+    }
+
+    /** Checks shared by /api/chat and /api/chat/stream; returns an error response or null. */
+    private static Map<String, Object> validateChat(HttpExchange ex, ChatRequest body) {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+            return error("Method not allowed", 405);
+        }
+
+        String message = body == null ? null : safeTrim(body.message());
+        if (message == null || message.isBlank()) {
+            return error("Bạn chưa nhập nội dung.", 400);
+        }
+        if (message.length() > MAX_INPUT_CHARS) {
+            return error("Nội dung quá dài (tối đa " + MAX_INPUT_CHARS + " ký tự).", 400);
+        }
+
+        if (GEMINI_API_KEY == null || GEMINI_API_KEY.isBlank()) {
+            return error("Server chưa cấu hình GEMINI_API_KEY. (Để deploy lên web: set env var trên hosting.)", 501);
+        }
+        return null;
+    }
+
+    /**
+     * The turns to send upstream, and the session they belong to (null when the client sent
+     * its own history); newSession when this request started it.
+     */
+    private record Conversation(String sessionId, List<String[]> turns, boolean newSession) { }
+
+    /**
+     * Session mode when the body carries a sessionId: the history comes from the store, and
+     * an empty, unknown or expired id starts a new session (seeded from history, if sent).
+     * Otherwise the page's own history is used as before. Either way only the most recent
+     * turns within MAX_HISTORY and HISTORY_MAX_CHARS go upstream.
+     */
+    private static Conversation conversation(ChatRequest body) {
+        String id = safeTrim(body.sessionId());
+        if (id == null) {
+            return new Conversation(null, SessionStore.recent(historyTurns(body), MAX_HISTORY, HISTORY_MAX_CHARS), false);
+        }
+        List<String[]> turns = id.isEmpty() ? null : SESSIONS.turns(id);
+        boolean started = turns == null;
+        if (started) {
+            SessionStore.Created created = SESSIONS.create(historyTurns(body));
+            id = created.id();
+            turns = created.turns();
+        }
+        return new Conversation(id, turns, started);
+    }
+
+    /** Optional history: [{role:"user"|"ai", text:"..."}] as {apiRole, text} pairs, oldest first. */
+    private static List<String[]> historyTurns(ChatRequest body) {
+        List<String[]> turns = new ArrayList<>();
+        if (body.history() == null) return turns;
+        for (HistoryItem item : body.history()) {
+            if (item == null) continue;
+            String role = safeTrim(item.role());
+            String text = safeTrim(item.text());
+            if (role == null || text == null || text.isBlank()) continue;
+            String apiRole = role.equalsIgnoreCase("ai") ? "model" : "user";
+            turns.add(new String[]{apiRole, text});
+        }
+        return turns;
+    }
+
+    // Request shapes. Json binds these directly via cached per-record codecs.
+
+    /**
+     * Body of /api/chat and /api/chat/stream. Clients either send their history with every
+     * message, or a sessionId ("" for a new conversation) and let the server keep it.
+     */
+    record ChatRequest(String message, List<HistoryItem> history, String sessionId) { }
+
+    /** role is "user" or "ai" as sent by the page. */
+    record HistoryItem(String role, String text) { }
+
+    /**
+     * Counts every upstream attempt (hedges included) in the load shedder and the
+     * upstream metrics; sits under {@link ResilientProvider} so it sees each attempt.
+     */
+    private static final class MeteredProvider implements LlmProvider {
+        private final LlmProvider delegate;
+
+        MeteredProvider(LlmProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override public String name() {
+            return delegate.name();
+        }
+
+        @Override public CompletableFuture<String> generate(String message, List<String[]> turns, long deadlineNanos) {
+            long started = UPSTREAM_LOAD.begin();
+            CompletableFuture<String> reply;
+            try {
+                reply = delegate.generate(message, turns, deadlineNanos);
+            } catch (RuntimeException e) {
+                reply = CompletableFuture.failedFuture(e);
+            }
+            reply.whenComplete((r, err) -> {
+                UPSTREAM_LOAD.end(started);
+                recordUpstream("generateContent", started, upstreamOutcome(err));
+            });
+            return reply;
+        }
+
+        @Override public TextStream stream(String message, List<String[]> turns, long timeoutMillis)
+                throws IOException, InterruptedException, UpstreamException {
+            long started = UPSTREAM_LOAD.begin();
+            TextStream s;
+            try {
+                s = delegate.stream(message, turns, timeoutMillis);
+            } catch (Exception e) {
+                UPSTREAM_LOAD.end(started);
+                recordUpstream("streamGenerateContent", started, upstreamOutcome(e));
+                throw e;
+            }
+            return new TextStream() {
+                private boolean any;
+                private boolean complete;
+
+                @Override public String next() throws IOException {
+                    String text = s.next();
+                    if (text != null) any = true;
+                    else complete = true;
+                    return text;
+                }
+
+                @Override public void close() throws IOException {
+                    try {
+                        s.close();
+                    } finally {
+                        UPSTREAM_LOAD.end(started);
+                        recordUpstream("streamGenerateContent", started, any && complete ? "ok" : "error");
+                    }
+                }
+            };
+        }
+    }
+
+    private static void sendJson(HttpExchange ex, int status, Object body) throws IOException {
+        // encoded straight to UTF-8 in a pooled buffer; no intermediate String
+        JfrEvents.JsonResponse event = new JfrEvents.JsonResponse();
+        event.begin();
+        long t = System.nanoTime();
+        Json.Utf8Buffer buf = Json.encode(body);
+        long serialize = System.nanoTime() - t;
+        JSON_SERIALIZE.recordNanos(serialize);
+        int length = buf.length();
+        Compression.Encoding enc;
+        try {
+            // same-origin by default; add CORS only if you host frontend separately
+            enc = sendBytes(ex, status, buf.array(), length, "application/json; charset=utf-8");
+        } finally {
+            Json.release(buf);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.route = ex.getHttpContext().getPath();
+            event.status = status;
+            event.bytes = length;
+            event.encoding = enc.token == null ? "identity" : enc.token;
+            event.serializeTime = serialize;
+            event.commit();
+        }
+    }
+
+    private static void sendText(HttpExchange ex, int status, String text, String contentType) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        sendBytes(ex, status, bytes, bytes.length, contentType + "; charset=utf-8");
+    }
+
+    /**
+     * Small bodies go out with a known length. Bodies large enough to benefit are
+     * compressed on the fly into a chunked response, so no compressed copy is buffered.
+     */
+    private static Compression.Encoding sendBytes(HttpExchange ex, int status, byte[] bytes, int length, String contentType)
+            throws IOException {
+        Headers h = ex.getResponseHeaders();
+        h.set("Content-Type", contentType);
+        h.set("Cache-Control", "no-store");
+        Compression.Encoding enc = Compression.Encoding.IDENTITY;
+        if (length >= COMPRESS_MIN_BYTES) {
+            h.set("Vary", "Accept-Encoding");
+            enc = Compression.negotiate(ex.getRequestHeaders().getFirst("Accept-Encoding"));
+        }
+        if (enc == Compression.Encoding.IDENTITY) {
+            ex.sendResponseHeaders(status, length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes, 0, length);
+            }
+            return enc;
+        }
+        h.set("Content-Encoding", enc.token);
+        ex.sendResponseHeaders(status, 0);
+        try (OutputStream out = Compression.wrap(ex.getResponseBody(), enc)) {
+            out.write(bytes, 0, length);
+        }
+        return enc;
+    }
+
+    private static Map<String, Object> error(String msg, int status) {
+        return error(msg, status, null);
+    }
+
+    private static Map<String, Object> error(String msg, int status, Map<String, Object> extra) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("ok", false);
+        out.put("status", status);
+        out.put("error", msg);
+        if (extra != null) out.putAll(extra);
+        return out;
+    }
+
+    static Path resolveSiteRoot() {
+        // server/ is inside repo root => static root is parent directory
+        Path cwd = Path.of("").toAbsolutePath().normalize();
+        // If running from repo root, use it; if running from server/, use parent.
+        if (Files.exists(cwd.resolve("index.html"))) return cwd;
+        if (Files.exists(cwd.resolve("server").resolve("pom.xml"))) return cwd;
+        Path parent = cwd.getParent();
+        if (parent != null && Files.exists(parent.resolve("index.html"))) return parent;
+        return cwd;
+    }
+
+    static final class StaticHandler implements HttpHandler {
+        private final Path root;
+        private final AssetCache cache;
+        private final AssetBundle bundle;
+        private final HtmlRewriter rewriter;
+
+        StaticHandler(Path root, AssetCache cache) {
+            this.root = root;
+            this.cache = cache;
+            this.bundle = null;
+            this.rewriter = STATIC_FINGERPRINTS ? new HtmlRewriter(root, cache) : null;
+        }
+
+        /** Serves only what the bundle holds; the filesystem is never touched per request. */
+        StaticHandler(AssetBundle bundle) {
+            this.root = null;
+            this.cache = null;
+            this.bundle = bundle;
+            this.rewriter = null;
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String method = ex.getRequestMethod();
+            if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+                sendText(ex, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            String rawPath = ex.getRequestURI().getPath();
+            if (rawPath == null || rawPath.isBlank()) rawPath = "/";
+            if (rawPath.equals("/")) rawPath = "/index.html";
+
+            // protect against path traversal; bundle lookups are exact matches, so they can't reach anything else
+            if (bundle == null && !root.resolve(rawPath.substring(1)).normalize().startsWith(root)) {
+                sendText(ex, 400, "Bad Request", "text/plain");
+                return;
+            }
+            JfrEvents.StaticLookup lookupEvent = new JfrEvents.StaticLookup();
+            lookupEvent.begin();
+            String fingerprint = null;
+            // a real file whose name merely looks fingerprinted (app.0123456789.js) wins over app.js
+            AssetCache.Asset asset = lookup(rawPath);
+            String[] split = asset == null ? HtmlRewriter.splitFingerprint(rawPath) : null;
+            if (split != null) {
+                asset = lookup(split[0]);
+                if (asset != null) {
+                    rawPath = split[0];
+                    fingerprint = split[1];
+                }
+            }
+            if (asset == null) {
+                commit(lookupEvent, rawPath, null, false);
+                sendText(ex, 404, "Not Found", "text/plain");
+                return;
+            }
+            // decided on the source: a resized variant is as current as the image it came from
+            boolean current = fingerprint != null && fingerprint.equals(asset.fingerprint);
+
+            String query = ex.getRequestURI().getRawQuery();
+            boolean resized = false;
+            if (query != null && IMAGES != null && ImageVariants.resizable(asset.contentType)) {
+                int width = queryInt(query, "w");
+                int quality = queryInt(query, "q");
+                if (width != -1 || quality != -1) {
+                    // a fixed set of sizes, so URLs can't make the server resize and store without bound
+                    if (width < 0 || quality < -1 || !IMAGES.allowed(width, quality)) {
+                        sendText(ex, 400, "Bad Request", "text/plain");
+                        return;
+                    }
+                    asset = IMAGES.get(asset, width, quality);
+                    resized = true;
+                }
+            }
+            commit(lookupEvent, rawPath, asset, resized);
+
+            Headers req = ex.getRequestHeaders();
+            String range = req.getFirst("Range");
+            // byte ranges always address the identity representation
+            Compression.Encoding enc = (asset.compressible && range == null)
+                    ? Compression.negotiate(req.getFirst("Accept-Encoding"))
+                    : Compression.Encoding.IDENTITY;
+            AssetCache.Variant variant = asset.select(enc);
+
+            Headers h = ex.getResponseHeaders();
+            h.set("Content-Type", asset.contentType);
+            h.set("ETag", variant.etag);
+            h.set("Last-Modified", asset.lastModified);
+            h.set("Accept-Ranges", "bytes");
+            if (asset.compressible) h.set("Vary", "Accept-Encoding");
+            if (variant.encoding.token != null) h.set("Content-Encoding", variant.encoding.token);
+            if (current) {
+                // the URL names exactly this content, so it never needs revalidating
+                h.set("Cache-Control", "public, max-age=31536000, immutable");
+            } else if (fingerprint != null) {
+                // fingerprint from an older page: serve what is there now, but don't let it stick
+                h.set("Cache-Control", "no-cache");
+            } else if (rawPath.startsWith("/img/")) {
+                // modest caching for unfingerprinted assets
+                h.set("Cache-Control", "public, max-age=86400");
+            } else {
+                h.set("Cache-Control", "no-cache");
+            }
+
+            if (notModified(req, asset, variant)) {
+                ex.sendResponseHeaders(304, -1);
+                ex.close();
+                return;
+            }
+
+            int status = 200;
+            long start = 0;
+            long count = variant.length;
+            if (range != null && ifRangeMatches(req.getFirst("If-Range"), asset)) {
+                long[] r = parseRange(range, variant.length);
+                if (r == UNSATISFIABLE) {
+                    h.set("Content-Range", "bytes */" + variant.length);
+                    sendText(ex, 416, "Range Not Satisfiable", "text/plain");
+                    return;
+                }
+                if (r != null) {
+                    status = 206;
+                    start = r[0];
+                    count = r[1] - r[0] + 1;
+                    h.set("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + variant.length);
+                }
+            }
+
+            if ("HEAD".equalsIgnoreCase(method)) {
+                h.set("Content-Length", Long.toString(count));
+                ex.sendResponseHeaders(status, -1);
+                ex.close();
+                return;
+            }
+            JfrEvents.StaticWrite writeEvent = new JfrEvents.StaticWrite();
+            writeEvent.begin();
+            ex.sendResponseHeaders(status, count);
+            try (OutputStream out = ex.getResponseBody()) {
+                if (variant.data != null) {
+                    out.write(variant.data, (int) start, (int) count);
+                } else if (variant.mapped != null) {
+                    WritableByteChannel target = Channels.newChannel(out);
+                    ByteBuffer slice = variant.mapped.slice((int) start, (int) count);
+                    while (slice.hasRemaining()) target.write(slice);
+                } else {
+                    transferFile(asset.file, start, count, out);
+                }
+            }
+            writeEvent.end();
+            if (writeEvent.shouldCommit()) {
+                writeEvent.path = rawPath;
+                writeEvent.status = status;
+                writeEvent.bytes = count;
+                writeEvent.encoding = variant.encoding.token == null ? "identity" : variant.encoding.token;
+                writeEvent.source = variant.data != null ? "memory" : variant.mapped != null ? "mapped" : "file";
+                writeEvent.commit();
+            }
+        }
+
+        private static void commit(JfrEvents.StaticLookup event, String path, AssetCache.Asset asset, boolean resized) {
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.path = path;
+            event.found = asset != null;
+            event.bytes = asset == null ? -1 : asset.length;
+            event.resized = resized;
+            event.commit();
+        }
+
+        /** The asset for an already traversal-checked URL path; pages come back with fingerprinted references. */
+        private AssetCache.Asset lookup(String urlPath) throws IOException {
+            if (bundle != null) return bundle.get(urlPath);
+            Path target = root.resolve(urlPath.substring(1)).normalize();
+            AssetCache.Asset asset = cache.get(target);
+            if (asset != null && rewriter != null) asset = rewriter.rewrite(target, urlPath, asset);
+            return asset;
+        }
+
+        /** Value of an integer query parameter: -1 if absent, -2 if not a non-negative number. */
+        private static int queryInt(String rawQuery, String name) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq);
+                if (!key.equals(name)) continue;
+                long v = eq < 0 ? -2 : parseLongOr(pair.substring(eq + 1), -2);
+                return v < 0 || v > Integer.MAX_VALUE ? -2 : (int) v;
+            }
+            return -1;
+        }
+
+        /**
+         * Streams a slice of a file through its FileChannel instead of loading it on the heap.
+         * HttpServer only exposes an OutputStream, so the channel copies through a small
+         * fixed buffer; memory use no longer depends on file size.
+         */
+        private static void transferFile(Path file, long start, long count, OutputStream out) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long pos = start;
+                long end = start + count;
+                while (pos < end) {
+                    long n = ch.transferTo(pos, end - pos, target);
+                    if (n <= 0) {
+                        // file shrank under us; abort rather than send a short body silently
+                        throw new IOException("File truncated while sending: " + file);
+                    }
+                    pos += n;
+                }
+            }
+        }
+
+        private static final long[] UNSATISFIABLE = new long[0];
+
+        /**
+         * Parses a single "bytes=" range into inclusive [first, last].
+         * Returns null to ignore the header (bad syntax or multiple ranges: the full body is sent),
+         * or UNSATISFIABLE when no byte of the range lies inside the representation.
+         */
+        private static long[] parseRange(String header, long length) {
+            String v = header.trim();
+            if (!v.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+            v = v.substring(6).trim();
+            if (v.indexOf(',') >= 0) return null;
+            int dash = v.indexOf('-');
+            if (dash < 0) return null;
+            String a = v.substring(0, dash).trim();
+            String b = v.substring(dash + 1).trim();
+            try {
+                long first;
+                long last;
+                if (a.isEmpty()) {
+                    // suffix range: last N bytes
+                    if (b.isEmpty()) return null;
+                    long n = Long.parseLong(b);
+                    if (n <= 0) return UNSATISFIABLE;
+                    first = Math.max(0, length - n);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(a);
+                    last = b.isEmpty() ? length - 1 : Math.min(Long.parseLong(b), length - 1);
+                    if (first < 0 || (!b.isEmpty() && Long.parseLong(b) < first)) return null;
+                }
+                if (length == 0 || first >= length) return UNSATISFIABLE;
+                return new long[]{first, last};
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /** If-Range holds either a strong ETag or the exact Last-Modified date. */
+        private static boolean ifRangeMatches(String ifRange, AssetCache.Asset asset) {
+            if (ifRange == null) return true;
+            String v = ifRange.trim();
+            if (v.startsWith("\"")) return v.equals(asset.etag);
+            if (v.startsWith("W/")) return false;
+            try {
+                long date = java.time.ZonedDateTime.parse(v, AssetCache.HTTP_DATE).toInstant().toEpochMilli();
+                return date == asset.lastModifiedMillis;
+            } catch (java.time.format.DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        /** RFC 7232: If-None-Match wins over If-Modified-Since when both are present. */
+        private static boolean notModified(Headers req, AssetCache.Asset asset, AssetCache.Variant variant) {
+            String inm = req.getFirst("If-None-Match");
+            if (inm != null) {
+                for (String tag : inm.split(",")) {
+                    String t = tag.trim();
+                    if (t.startsWith("W/")) t = t.substring(2);
+                    if (t.equals("*") || t.equals(variant.etag)) return true;
+                }
+                return false;
+            }
+            String ims = req.getFirst("If-Modified-Since");
+            if (ims == null) return false;
+            try {
+                long since = java.time.ZonedDateTime.parse(ims.trim(), AssetCache.HTTP_DATE).toInstant().toEpochMilli();
+                return asset.lastModifiedMillis <= since;
+            } catch (java.time.format.DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        static String contentType(Path p) {
+            String name = p.getFileName().toString().toLowerCase();
+            if (name.endsWith(".html")) return "text/html; charset=utf-8";
+            if (name.endsWith(".css")) return "text/css; charset=utf-8";
+            if (name.endsWith(".js")) return "application/javascript; charset=utf-8";
+            if (name.endsWith(".json")) return "application/json; charset=utf-8";
+            if (name.endsWith(".png")) return "image/png";
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
+            if (name.endsWith(".webp")) return "image/webp";
+            if (name.endsWith(".gif")) return "image/gif";
+            if (name.endsWith(".svg")) return "image/svg+xml";
+            if (name.endsWith(".ico")) return "image/x-icon";
+            return "application/octet-stream";
+        }
+    }
+
+    private static final class JsonHandler<T> implements HttpHandler {
+        /**
+         * Returns the JSON body to send, a CompletableFuture of it (the exchange is finished
+         * when the future completes), or null if the handler already wrote the response (e.g. SSE).
+         * body is null for GET or an empty POST.
+         */
+        interface Handler<T> { Object handle(HttpExchange ex, T body) throws Exception; }
+        private final Class<T> bodyType;
+        private final RateLimiter limiter;
+        private final LoadShedder shedder;
+        private final Handler<T> handler;
+        JsonHandler(Class<T> bodyType, Handler<T> handler) { this(bodyType, null, null, handler); }
+
+        /**
+         * bodyType is the record a POST body is bound to (null: body ignored).
+         * limiter and shedder are optional; both reject with 429 before the body is read.
+         */
+        JsonHandler(Class<T> bodyType, RateLimiter limiter, LoadShedder shedder, Handler<T> handler) {
+            this.bodyType = bodyType;
+            this.limiter = limiter;
+            this.shedder = shedder;
+            this.handler = handler;
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            try {
+                // preflight
+                if ("OPTIONS".equalsIgnoreCase(ex.getRequestMethod())) {
+                    Headers h = ex.getResponseHeaders();
+                    h.set("Access-Control-Allow-Origin", "*");
+                    h.set("Access-Control-Allow-Methods", "POST, GET, OPTIONS");
+                    h.set("Access-Control-Allow-Headers", "Content-Type, " + DEADLINE_HEADER);
+                    ex.sendResponseHeaders(204, -1);
+                    ex.close();
+                    return;
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestBudgetMillis(ex));
+                ex.setAttribute(DEADLINE_ATTR, deadline);
+
+                Headers h = ex.getResponseHeaders();
+                h.set("Access-Control-Allow-Origin", "*"); // OK for demo; for production, tighten to your domain
+
+                if (limiter != null) {
+                    long waitMillis = limiter.tryAcquire(clientKey(ex));
+                    if (waitMillis > 0) {
+                        h.set("Retry-After", Long.toString(Math.max(1, (waitMillis + 999) / 1000)));
+                        sendJson(ex, 429, error("Bạn gửi quá nhiều yêu cầu, vui lòng chờ một chút.", 429));
+                        return;
+                    }
+                }
+                if (shedder != null && shedder.shouldShed()) {
+                    h.set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+                    sendJson(ex, 429, error("AI đang quá tải, vui lòng thử lại sau.", 429));
+                    return;
+                }
+
+                T body = null;
+                if (bodyType != null && "POST".equalsIgnoreCase(ex.getRequestMethod())) {
+                    String declared = ex.getRequestHeaders().getFirst("Content-Length");
+                    if (declared != null && parseLongOr(declared, 0) > MAX_BODY_BYTES) {
+                        sendJson(ex, 413, error("Nội dung gửi lên quá lớn.", 413));
+                        return;
+                    }
+                    long t = System.nanoTime();
+                    JfrEvents.BodyParse parse = new JfrEvents.BodyParse();
+                    parse.begin();
+                    String outcome = "ok";
+                    // a client trickling its body must not hold the request past its deadline:
+                    // closing the exchange before a response has started drops the connection,
+                    // which fails the blocked read
+                    AtomicBoolean expired = new AtomicBoolean();
+                    CompletableFuture<Void> expiry = CompletableFuture.runAsync(() -> {
+                        expired.set(true);
+                        ex.close();
+                    }, CompletableFuture.delayedExecutor(Math.max(0, remainingMillis(deadline)), TimeUnit.MILLISECONDS));
+                    try (InputStream in = ex.getRequestBody()) {
+                        body = Json.read(in, bodyType, MAX_BODY_BYTES, MAX_JSON_DEPTH);
+                        JSON_PARSE.recordNanos(System.nanoTime() - t);
+                    } catch (IOException e) {
+                        if (!expired.get()) throw e;
+                        commit(parse, ex, declared, "timeout");
+                        return;
+                    } catch (Json.LimitExceededException e) {
+                        outcome = e.isSizeLimit() ? "too large" : "too deep";
+                        commit(parse, ex, declared, outcome);
+                        int status = e.isSizeLimit() ? 413 : 400;
+                        sendJson(ex, status, error(e.isSizeLimit() ? "Nội dung gửi lên quá lớn." : "JSON lồng nhau quá sâu.", status));
+                        return;
+                    } catch (Json.BindException e) {
+                        commit(parse, ex, declared, "bad type");
+                        sendJson(ex, 400, error("Dữ liệu gửi lên sai kiểu: " + e.getMessage(), 400));
+                        return;
+                    } catch (IllegalArgumentException e) {
+                        commit(parse, ex, declared, "invalid");
+                        sendJson(ex, 400, error("JSON không hợp lệ: " + e.getMessage(), 400));
+                        return;
+                    } finally {
+                        expiry.cancel(false);
+                    }
+                    if (expired.get()) {
+                        // expired just as the read finished: the connection is already gone
+                        commit(parse, ex, declared, "timeout");
+                        return;
+                    }
+                    commit(parse, ex, declared, outcome);
+                }
+                if (remainingMillis(deadline) <= 0) {
+                    sendJson(ex, 504, error("Hết thời gian xử lý yêu cầu.", 504));
+                    return;
+                }
+
+                Object out = handler.handle(ex, body);
+                if (out == null) return;
+                if (out instanceof CompletableFuture<?> future) {
+                    CompletableFuture<Void> done = new CompletableFuture<>();
+                    ex.setAttribute(ASYNC_ATTR, done);
+                    future.whenCompleteAsync((value, err) -> {
+                        try {
+                            respond(ex, err == null ? value : error("Server error: " + err.getMessage(), 500));
+                        } catch (IOException e) {
+                            ex.close();
+                        } finally {
+                            done.complete(null);
+                        }
+                    }, RESPONDER);
+                    return;
+                }
+                respond(ex, out);
+            } catch (Exception e) {
+                if (ex.getResponseCode() != -1) {
+                    // headers already went out (streaming); nothing sensible left to send
+                    ex.close();
+                    return;
+                }
+                sendJson(ex, 500, error("Server error: " + e.getMessage(), 500));
+            }
+        }
+
+        private static void respond(HttpExchange ex, Object out) throws IOException {
+            int status = 200;
+            if (out instanceof Map<?, ?> mm) {
+                Object st = mm.get("status");
+                if (st instanceof Number n) status = n.intValue();
+            }
+            sendJson(ex, status, out);
+        }
+
+        private static void commit(JfrEvents.BodyParse event, HttpExchange ex, String declaredLength, String outcome) {
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.route = ex.getHttpContext().getPath();
+            event.declaredBytes = declaredLength == null ? -1 : parseLongOr(declaredLength, -1);
+            event.outcome = outcome;
+            event.commit();
+        }
+
+        private static String clientKey(HttpExchange ex) {
+            if (TRUST_PROXY) {
+                String fwd = ex.getRequestHeaders().getFirst("X-Forwarded-For");
+                if (fwd != null && !fwd.isBlank()) {
+                    int comma = fwd.indexOf(',');
+                    return (comma < 0 ? fwd : fwd.substring(0, comma)).trim();
+                }
+            }
+            InetSocketAddress remote = ex.getRemoteAddress();
+            if (remote == null) return "?";
+            return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+        }
+
+        private static long requestBudgetMillis(HttpExchange ex) {
+            String v = ex.getRequestHeaders().getFirst(DEADLINE_HEADER);
+            if (v != null) {
+                try {
+                    long ms = Long.parseLong(v.trim());
+                    if (ms > 0) return Math.min(ms, REQUEST_DEADLINE_MS);
+                } catch (NumberFormatException ignored) {
+                    // fall back to the configured budget
+                }
+            }
+            return REQUEST_DEADLINE_MS;
+        }
+    }
+
+    /** Prometheus text exposition of {@link #METRICS}. */
+    private static void handleMetrics(HttpExchange ex) throws IOException {
+        String method = ex.getRequestMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            sendText(ex, 405, "Method Not Allowed", "text/plain");
+            return;
+        }
+        if (METRICS_TOKEN != null && !METRICS_TOKEN.isBlank()) {
+            String auth = ex.getRequestHeaders().getFirst("Authorization");
+            byte[] expected = ("Bearer " + METRICS_TOKEN).getBytes(StandardCharsets.UTF_8);
+            if (auth == null || !MessageDigest.isEqual(expected, auth.getBytes(StandardCharsets.UTF_8))) {
+                ex.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                sendText(ex, 401, "Unauthorized", "text/plain");
+                return;
+            }
+        }
+        sendText(ex, 200, METRICS.scrape(), "text/plain; version=0.0.4");
+    }
+
+    /**
+     * Outermost wrapper of every route: counts requests by status class and records
+     * the total time and, when the handler noted how long it waited for the upstream,
+     * the part that was our own. Async exchanges are recorded once the response is sent.
+     */
+    private static final class MeteredHandler implements HttpHandler {
+        private final String route;
+        private final HttpHandler delegate;
+        private final LatencyHistogram duration;
+        // series are created on first use so routes only export what they produce;
+        // racing threads get the same child back from the registry
+        // index 0: no response was sent, 1..5: status class
+        private final LongAdder[] byStatus = new LongAdder[6];
+        private volatile LatencyHistogram overhead;
+
+        MeteredHandler(String route, HttpHandler delegate) {
+            this.route = route;
+            this.delegate = delegate;
+            this.duration = HTTP_DURATION.labels(route);
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            long start = System.nanoTime();
+            JfrEvents.Request event = new JfrEvents.Request();
+            event.begin();
+            AccessLog.CountingStream body = null;
+            if (ACCESS != null || event.isEnabled()) {
+                body = new AccessLog.CountingStream(ex.getResponseBody());
+                ex.setStreams(null, body);
+            }
+            AccessLog.CountingStream sent = body;
+            try {
+                delegate.handle(ex);
+            } finally {
+                if (ex.getAttribute(ASYNC_ATTR) instanceof CompletableFuture<?> done && !done.isDone()) {
+                    done.whenComplete((v, err) -> record(ex, start, sent, event));
+                } else {
+                    record(ex, start, sent, event);
+                }
+            }
+        }
+
+        private void record(HttpExchange ex, long start, AccessLog.CountingStream sent, JfrEvents.Request event) {
+            long elapsed = System.nanoTime() - start;
+            int status = ex.getResponseCode();
+            int i = status >= 100 && status < 600 ? status / 100 : 0;
+            LongAdder count = byStatus[i];
+            if (count == null) byStatus[i] = count = HTTP_REQUESTS.labels(route, i == 0 ? "none" : i + "xx");
+            count.increment();
+            duration.recordNanos(elapsed);
+            if (ex.getAttribute(UPSTREAM_WAIT_ATTR) instanceof Long wait) {
+                LatencyHistogram h = overhead;
+                if (h == null) overhead = h = HTTP_OVERHEAD.labels(route);
+                h.recordNanos(elapsed - wait);
+            }
+            long upstream = ex.getAttribute(UPSTREAM_WAIT_ATTR) instanceof Long wait ? wait : -1;
+            if (ACCESS != null) {
+                ACCESS.log(ex.getRequestMethod(), route, ex.getRequestURI().getRawPath(), status,
+                        sent.count, elapsed, upstream, ex.getRemoteAddress());
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.route = route;
+                event.method = ex.getRequestMethod();
+                event.path = ex.getRequestURI().getRawPath();
+                event.status = status;
+                event.responseBytes = sent != null ? sent.count : -1;
+                event.upstreamWait = Math.max(0, upstream);
+                event.commit();
+            }
+        }
+    }
+
+    /** Applies a route class's bulkhead; rejects with 503 + Retry-After when its queue is full. */
+    private static final class LimitedHandler implements HttpHandler {
+        private final Bulkhead bulkhead;
+        private final boolean json;
+        private final HttpHandler delegate;
+
+        LimitedHandler(Bulkhead bulkhead, boolean json, HttpHandler delegate) {
+            this.bulkhead = bulkhead;
+            this.json = json;
+            this.delegate = delegate;
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            boolean admitted;
+            try {
+                admitted = bulkhead.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (!admitted) {
+                ex.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+                if (json) {
+                    sendJson(ex, 503, error("Máy chủ đang quá tải, vui lòng thử lại sau.", 503));
+                } else {
+                    sendText(ex, 503, "Service Unavailable", "text/plain");
+                }
+                return;
+            }
+            boolean async = false;
+            try {
+                delegate.handle(ex);
+                // async handlers keep their slot until the response has actually been sent
+                if (ex.getAttribute(ASYNC_ATTR) instanceof CompletableFuture<?> done && !done.isDone()) {
+                    async = true;
+                    done.whenComplete((v, err) -> bulkhead.release());
+                }
+            } finally {
+                if (!async) bulkhead.release();
+            }
+        }
+    }
+
+    /** Environment variable, else a system property of the same name (lets the benchmarks configure an in-process server). */
+    private static String env(String key) {
+        String v = System.getenv(key);
+        return v != null ? v : System.getProperty(key);
+    }
+
+    private static String envOr(String key, String def) {
+        String v = env(key);
+        return (v == null || v.isBlank()) ? def : v;
+    }
+
+    private static int intEnv(String key, int def) {
+        String v = env(key);
+        if (v == null || v.isBlank()) return def;
+        try { return Integer.parseInt(v.trim()); } catch (Exception e) { return def; }
+    }
+
+    /** Comma-separated positive integers; entries that aren't are skipped. */
+    private static int[] intListEnv(String key, String def) {
+        String v = envOr(key, def);
+        return Arrays.stream(v.split(","))
+                .map(String::trim)
+                .filter(t -> t.matches("\\d{1,6}") && Integer.parseInt(t) > 0)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    private static long parseLongOr(String v, long def) {
+        try { return Long.parseLong(v.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
+    private static String stripTrailingSlash(String s) {
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static String safeTrim(String s) {
+        return s == null ? null : s.trim();
+    }
+}
+
+
@@ -0,0 +1,189 @@
+package blog.server;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Minimal metrics registry rendered in the Prometheus text format (version 0.0.4).
+ * Counters are LongAdders and histograms are {@link LatencyHistogram}s, so recording
+ * never takes a lock; callers on hot paths look up their labelled child once and keep it.
+ * Scrapes only read, so they never block recording threads.
+ */
+final class Metrics {
+    /** Request-scale bounds in seconds, 0.5 ms .. 60 s. */
+    static final double[] HTTP_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    /** Bounds for in-process work such as JSON encoding, 1 µs .. 100 ms. */
+    static final double[] FAST_BUCKETS = {0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.01, 0.1};
+
+    private final List<Family<?>> families = new CopyOnWriteArrayList<>();
+
+    Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    Histogram histogram(String name, String help, double[] bucketsSeconds, String... labelNames) {
+        return register(new Histogram(name, help, bucketsSeconds, labelNames));
+    }
+
+    /** A value read at scrape time; type is "gauge" or "counter" (for totals kept elsewhere). */
+    Callback callback(String name, String help, String type, String... labelNames) {
+        return register(new Callback(name, help, type, labelNames));
+    }
+
+    private <F extends Family<?>> F register(F family) {
+        for (Family<?> f : families) {
+            if (f.name.equals(family.name)) throw new IllegalArgumentException("duplicate metric " + family.name);
+        }
+        families.add(family);
+        return family;
+    }
+
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family<?> f : families) {
+            out.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+            f.write(out);
+        }
+        return out.toString();
+    }
+
+    private abstract static class Family<T> {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+        final ConcurrentHashMap<List<String>, T> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+
+        List<String> key(String[] values) {
+            if (values.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " takes labels " + Arrays.toString(labelNames));
+            }
+            return List.of(values);
+        }
+
+        abstract void write(StringBuilder out, String labels, T child);
+
+        void write(StringBuilder out) {
+            // sorted so series keep their order between scrapes
+            List<List<String>> keys = new ArrayList<>(children.keySet());
+            keys.sort((a, b) -> String.join("\u0000", a).compareTo(String.join("\u0000", b)));
+            for (List<String> key : keys) {
+                write(out, labelText(key), children.get(key));
+            }
+        }
+
+        /** {a="x",b="y"} without braces; empty when unlabelled. */
+        String labelText(List<String> values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(labelNames[i]).append("=\"");
+                String v = values.get(i);
+                for (int j = 0; j < v.length(); j++) {
+                    char c = v.charAt(j);
+                    if (c == '\\' || c == '"') sb.append('\\').append(c);
+                    else if (c == '\n') sb.append("\\n");
+                    else sb.append(c);
+                }
+                sb.append('"');
+            }
+            return sb.toString();
+        }
+
+        static void sample(StringBuilder out, String name, String labels, String extra, String value) {
+            out.append(name);
+            if (!labels.isEmpty() || extra != null) {
+                out.append('{').append(labels);
+                if (extra != null) out.append(labels.isEmpty() ? "" : ",").append(extra);
+                out.append('}');
+            }
+            out.append(' ').append(value).append('\n');
+        }
+    }
+
+    /** A family whose children are recorded into by the application rather than read from elsewhere. */
+    private abstract static class Recorded<T> extends Family<T> {
+        Recorded(String name, String help, String type, String[] labelNames) {
+            super(name, help, type, labelNames);
+        }
+
+        /** The child for these label values, created on first use. Cache it on hot paths. */
+        T labels(String... values) {
+            List<String> key = key(values);
+            T child = children.get(key);
+            return child != null ? child : children.computeIfAbsent(key, k -> create());
+        }
+
+        abstract T create();
+    }
+
+    static final class Counter extends Recorded<LongAdder> {
+        Counter(String name, String help, String[] labelNames) {
+            super(name, help, "counter", labelNames);
+        }
+
+        @Override LongAdder create() { return new LongAdder(); }
+
+        @Override void write(StringBuilder out, String labels, LongAdder child) {
+            sample(out, name, labels, null, Long.toString(child.sum()));
+        }
+    }
+
+    static final class Histogram extends Recorded<LatencyHistogram> {
+        private final long[] boundsNanos;
+        private final String[] leLabels;
+
+        Histogram(String name, String help, double[] bucketsSeconds, String[] labelNames) {
+            super(name, help, "histogram", labelNames);
+            boundsNanos = new long[bucketsSeconds.length];
+            leLabels = new String[bucketsSeconds.length];
+            for (int i = 0; i < bucketsSeconds.length; i++) {
+                boundsNanos[i] = Math.round(bucketsSeconds[i] * 1e9);
+                leLabels[i] = "le=\"" + BigDecimal.valueOf(bucketsSeconds[i]).stripTrailingZeros().toPlainString() + "\"";
+            }
+        }
+
+        @Override LatencyHistogram create() { return new LatencyHistogram(); }
+
+        @Override void write(StringBuilder out, String labels, LatencyHistogram child) {
+            LatencyHistogram.Snapshot s = child.snapshot();
+            long[] cumulative = s.cumulative(boundsNanos);
+            for (int i = 0; i < cumulative.length; i++) {
+                sample(out, name + "_bucket", labels, leLabels[i], Long.toString(cumulative[i]));
+            }
+            sample(out, name + "_bucket", labels, "le=\"+Inf\"", Long.toString(s.count()));
+            sample(out, name + "_sum", labels, null, Double.toString(s.sumNanos() / 1e9));
+            sample(out, name + "_count", labels, null, Long.toString(s.count()));
+        }
+    }
+
+    static final class Callback extends Family<DoubleSupplier> {
+        Callback(String name, String help, String type, String[] labelNames) {
+            super(name, help, type, labelNames);
+        }
+
+        /** Sets the supplier read at scrape time for these label values. */
+        void register(DoubleSupplier value, String... labelValues) {
+            children.put(key(labelValues), value);
+        }
+
+        @Override void write(StringBuilder out, String labels, DoubleSupplier child) {
+            double v = child.getAsDouble();
+            sample(out, name, labels, null, v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : Double.toString(v));
+        }
+    }
+}
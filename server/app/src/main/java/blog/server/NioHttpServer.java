@@ -0,0 +1,926 @@
+package blog.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small HTTP/1.1 server on NIO selectors that stands in for the JDK HttpServer: it
+ * extends {@link HttpServer} and runs the same HttpHandlers (and context filters) through
+ * its own {@link HttpExchange}, so Main's routes and handlers don't know which engine
+ * they are on.
+ *
+ * A few event loops each own a selector; the first also accepts and hands connections
+ * out round robin. Requests are parsed incrementally out of pooled direct buffers, and
+ * once a request's head and body are in, its exchange goes to the executor. The handler
+ * writes from its own thread straight to the socket through another pooled buffer,
+ * waiting on the loop only while the socket's send buffer is full. A connection runs one
+ * exchange at a time: pipelined requests wait in its read buffer until the previous
+ * response is complete, so responses go out in order. Connections idle for longer than
+ * {@link #IDLE_TIMEOUT_MS} are closed.
+ *
+ * Limits: a request head must fit in {@link #BUFFER_BYTES}; request bodies need a
+ * Content-Length (chunked ones get 411); only the first maxBodyBytes of a body are kept,
+ * and the connection is closed after answering such a request. No TLS, no Upgrade.
+ */
+final class NioHttpServer extends HttpServer {
+    static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 512;
+    private static final long IDLE_TIMEOUT_MS = 30_000;
+    private static final long WRITE_TIMEOUT_MS = 30_000;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final int loopCount;
+    private final int maxBodyBytes;
+    private final BufferPool buffers = new BufferPool(BUFFER_BYTES, MAX_POOLED_BUFFERS);
+    private final List<NioContext> contexts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger activeExchanges = new AtomicInteger();
+    private final Executor defaultExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile Executor executor;
+    private ServerSocketChannel listener;
+    private InetSocketAddress address;
+    private EventLoop[] loops;
+
+    private NioHttpServer(int loopCount, int maxBodyBytes) {
+        this.loopCount = Math.max(1, loopCount);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /** Like {@link HttpServer#create(InetSocketAddress, int)}, with the number of event loops and the request body cap. */
+    static NioHttpServer create(InetSocketAddress addr, int backlog, int loops, int maxBodyBytes) throws IOException {
+        NioHttpServer server = new NioHttpServer(loops, maxBodyBytes);
+        if (addr != null) server.bind(addr, backlog);
+        return server;
+    }
+
+    @Override public void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (listener != null) throw new IllegalStateException("already bound");
+        ServerSocketChannel ch = ServerSocketChannel.open();
+        ch.bind(addr, backlog);
+        ch.configureBlocking(false);
+        listener = ch;
+        address = (InetSocketAddress) ch.getLocalAddress();
+    }
+
+    @Override public synchronized void start() {
+        if (listener == null) throw new IllegalStateException("not bound");
+        if (loops != null) throw new IllegalStateException("already started");
+        EventLoop[] created = new EventLoop[loopCount];
+        try {
+            for (int i = 0; i < created.length; i++) created[i] = new EventLoop(i);
+            listener.register(created[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot start event loops", e);
+        }
+        loops = created;
+        for (EventLoop loop : created) loop.thread.start();
+    }
+
+    /** A null executor runs each exchange on its own virtual thread; never on an event loop. */
+    @Override public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override public Executor getExecutor() {
+        return executor;
+    }
+
+    /** Stops accepting, waits up to delaySeconds for running exchanges, then closes every connection. */
+    @Override public void stop(int delaySeconds) {
+        closeQuietly(listener);
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(0, delaySeconds));
+        while (activeExchanges.get() > 0 && System.nanoTime() - until < 0) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        EventLoop[] started;
+        synchronized (this) {
+            started = loops;
+        }
+        if (started == null) return;
+        for (EventLoop loop : started) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : started) {
+            try {
+                loop.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override public HttpContext createContext(String path, HttpHandler handler) {
+        NioContext ctx = createContext(path);
+        ctx.setHandler(handler);
+        return ctx;
+    }
+
+    @Override public synchronized NioContext createContext(String path) {
+        if (path == null || !path.startsWith("/")) throw new IllegalArgumentException("Invalid context path: " + path);
+        for (NioContext c : contexts) {
+            if (c.path.equals(path)) throw new IllegalArgumentException("Context already exists: " + path);
+        }
+        NioContext ctx = new NioContext(path);
+        contexts.add(ctx);
+        return ctx;
+    }
+
+    @Override public synchronized void removeContext(String path) {
+        if (!contexts.removeIf(c -> c.path.equals(path))) throw new IllegalArgumentException("No context for " + path);
+    }
+
+    @Override public void removeContext(HttpContext context) {
+        removeContext(context.getPath());
+    }
+
+    @Override public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /** Longest context path that prefixes the request path, as the JDK server matches them. */
+    private NioContext find(String path) {
+        NioContext best = null;
+        for (NioContext c : contexts) {
+            if (path.startsWith(c.path) && (best == null || c.path.length() > best.path.length())) best = c;
+        }
+        return best;
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    /** One selector and the connections registered with it; everything but {@link #execute} runs on its thread. */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final Set<Connection> connections = new HashSet<>();
+        volatile boolean running = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-http-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override public void run() {
+            long lastSweep = System.nanoTime();
+            try {
+                while (running) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid()) continue;
+                        if (!(key.attachment() instanceof Connection c)) {
+                            accept();
+                            continue;
+                        }
+                        try {
+                            if (key.isWritable()) c.onWritable();
+                            if (key.isValid() && key.isReadable()) c.onReadable();
+                        } catch (IOException | RuntimeException e) {
+                            c.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.nanoTime();
+                    if (now - lastSweep >= TimeUnit.SECONDS.toNanos(1)) {
+                        lastSweep = now;
+                        sweep();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("NIO event loop " + thread.getName() + " failed: " + e.getMessage());
+            } finally {
+                for (Connection c : new ArrayList<>(connections)) c.close();
+                closeQuietly(selector);
+            }
+        }
+
+        private void accept() {
+            try {
+                SocketChannel ch;
+                while ((ch = listener.accept()) != null) {
+                    ch.configureBlocking(false);
+                    ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                    SocketChannel accepted = ch;
+                    if (loop == this) register(accepted);
+                    else loop.execute(() -> loop.register(accepted));
+                }
+            } catch (IOException e) {
+                // e.g. out of file descriptors; the listener stays registered and is retried on the next select
+            }
+        }
+
+        void register(SocketChannel ch) {
+            try {
+                Connection c = new Connection(this, ch);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                connections.add(c);
+            } catch (IOException e) {
+                closeQuietly(ch);
+            }
+        }
+
+        /** Closes connections that have sat idle between requests (or mid-request) for too long. */
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            for (Connection c : new ArrayList<>(connections)) {
+                if (c.active == null && now - c.lastActivity > IDLE_TIMEOUT_MS) c.close();
+            }
+        }
+    }
+
+    /**
+     * One client connection. Parsing state is touched only by its loop's thread; the
+     * handler thread of the active exchange only writes to the channel, and hands the
+     * connection back through {@link EventLoop#execute}.
+     */
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final InetSocketAddress remote;
+        final InetSocketAddress local;
+        SelectionKey key;
+        /** Pooled read buffer in fill mode; null while nothing is buffered. */
+        ByteBuffer in;
+        /** Head parsed, body still arriving. */
+        NioExchange pending;
+        byte[] body;
+        int bodyFilled;
+        /** Bytes of an oversized body past the kept prefix, skipped once the prefix is dispatched. */
+        long discard;
+        /** The exchange a handler is running; the next request waits until it completes. */
+        NioExchange active;
+        long lastActivity = System.currentTimeMillis();
+        boolean eof;
+        volatile boolean closed;
+
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final Condition writable = writeLock.newCondition();
+        private boolean writeReady;
+
+        Connection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.remote = (InetSocketAddress) channel.getRemoteAddress();
+            this.local = (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        void onReadable() throws IOException {
+            if (in == null) in = buffers.acquire();
+            int n = channel.read(in);
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0) {
+                lastActivity = System.currentTimeMillis();
+            }
+            process();
+        }
+
+        void onWritable() {
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            writeLock.lock();
+            try {
+                writeReady = true;
+                writable.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /** Parses and dispatches whatever complete requests are buffered, one exchange at a time. */
+        void process() throws IOException {
+            if (in != null) {
+                in.flip();
+                try {
+                    while (!closed) {
+                        // the rest of an oversized body, once its kept prefix has gone to the handler
+                        if (pending == null && discard > 0) {
+                            int skip = (int) Math.min(discard, in.remaining());
+                            in.position(in.position() + skip);
+                            discard -= skip;
+                            if (discard > 0) break;
+                        }
+                        if (active != null) break;
+                        if (pending == null && !parseHead()) break;
+                        if (pending != null) {
+                            if (!fillBody()) break;
+                            dispatch();
+                        }
+                    }
+                } finally {
+                    if (in != null) in.compact();
+                }
+                if (in != null && in.position() == 0) {
+                    buffers.release(in);
+                    in = null;
+                }
+            }
+            if (closed) return;
+            if (eof) {
+                // the client is done sending: finish what is running, then hang up
+                if (active == null) close();
+                else key.interestOpsAnd(~SelectionKey.OP_READ);
+                return;
+            }
+            // stop reading while the buffer is full of requests waiting behind the active one
+            if (in == null || in.hasRemaining() || discard > 0) key.interestOpsOr(SelectionKey.OP_READ);
+            else key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+
+        /** Parses a request head from in (in read mode); false if it isn't all there yet. */
+        private boolean parseHead() throws IOException {
+            // tolerate blank lines between requests
+            while (in.remaining() >= 2 && in.get(in.position()) == '\r' && in.get(in.position() + 1) == '\n') {
+                in.position(in.position() + 2);
+            }
+            int end = headEnd();
+            if (end < 0) {
+                if (in.remaining() == in.capacity()) reject(431, "Request Header Fields Too Large");
+                return false;
+            }
+            byte[] raw = new byte[end - in.position() - 4];
+            in.get(raw);
+            in.position(end);
+            String[] lines = new String(raw, StandardCharsets.ISO_8859_1).split("\r\n");
+
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                reject(400, "Bad Request");
+                return false;
+            }
+            URI uri;
+            try {
+                uri = new URI(requestLine[1]);
+            } catch (URISyntaxException e) {
+                reject(400, "Bad Request");
+                return false;
+            }
+            Headers headers = new Headers();
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i];
+                int colon = line.indexOf(':');
+                // obsolete line folding and nameless fields are refused, as RFC 9112 allows
+                if (colon <= 0 || line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+                    reject(400, "Bad Request");
+                    return false;
+                }
+                headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+
+            if (headers.containsKey("Transfer-Encoding")) {
+                reject(411, "Length Required");
+                return false;
+            }
+            long length = 0;
+            String declared = headers.getFirst("Content-Length");
+            if (declared != null) {
+                try {
+                    length = Long.parseLong(declared.trim());
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                if (length < 0) {
+                    reject(400, "Bad Request");
+                    return false;
+                }
+            }
+
+            String protocol = requestLine[2];
+            boolean http11 = protocol.equals("HTTP/1.1");
+            String connection = headers.getFirst("Connection");
+            boolean keepAlive = http11
+                    ? !hasToken(connection, "close")
+                    : hasToken(connection, "keep-alive");
+            int kept = (int) Math.min(length, maxBodyBytes);
+            discard = length - kept;
+            pending = new NioExchange(this, requestLine[0], uri, protocol, headers, keepAlive && discard == 0, http11);
+            body = new byte[kept];
+            bodyFilled = 0;
+            if (kept > in.remaining() && hasToken(headers.getFirst("Expect"), "100-continue")) {
+                // nothing is being written while no exchange is active, so this can go out directly
+                channel.write(ByteBuffer.wrap(CONTINUE));
+            }
+            return true;
+        }
+
+        /** Absolute index just past the blank line ending the head, or -1. */
+        private int headEnd() {
+            for (int i = in.position() + 3; i < in.limit(); i++) {
+                if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private boolean fillBody() {
+            int n = Math.min(body.length - bodyFilled, in.remaining());
+            in.get(body, bodyFilled, n);
+            bodyFilled += n;
+            return bodyFilled == body.length;
+        }
+
+        private void dispatch() {
+            NioExchange ex = pending;
+            ex.requestBody = new ByteArrayInputStream(body);
+            pending = null;
+            body = null;
+            active = ex;
+            activeExchanges.incrementAndGet();
+            NioContext ctx = find(ex.uri.getPath() == null ? "/" : ex.uri.getPath());
+            ex.context = ctx;
+            Executor e = executor;
+            try {
+                (e != null ? e : defaultExecutor).execute(ex::run);
+            } catch (RejectedExecutionException rejected) {
+                finished(ex, false);
+            }
+        }
+
+        /** Called on the loop once the active exchange's response is fully written (or has failed). */
+        void finished(NioExchange ex, boolean reuse) {
+            if (active != ex) return;
+            active = null;
+            activeExchanges.decrementAndGet();
+            lastActivity = System.currentTimeMillis();
+            if (!reuse) {
+                close();
+                return;
+            }
+            try {
+                // pipelined requests may already be buffered
+                process();
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        /** Best-effort error response for a request that never reaches a handler; then hangs up. */
+        private void reject(int status, String reason) {
+            String head = "HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+            try {
+                channel.write(ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1)));
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+            close();
+        }
+
+        /** Writes all of bufs from a handler thread, waiting for the loop whenever the socket is full. */
+        void write(ByteBuffer[] bufs) throws IOException {
+            int first = 0;
+            while (first < bufs.length) {
+                if (!bufs[first].hasRemaining()) {
+                    first++;
+                    continue;
+                }
+                if (channel.write(bufs, first, bufs.length - first) == 0) awaitWritable();
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            writeLock.lock();
+            try {
+                writeReady = false;
+                if (closed) throw new ClosedChannelException();
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                loop.selector.wakeup();
+                long nanos = TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS);
+                while (!writeReady && !closed) {
+                    if (nanos <= 0) throw new IOException("Write timed out");
+                    nanos = writable.awaitNanos(nanos);
+                }
+                if (closed) throw new ClosedChannelException();
+            } catch (CancelledKeyException e) {
+                // the loop closed the connection meanwhile
+                throw new ClosedChannelException();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to write");
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /** Loop thread only. */
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            loop.connections.remove(this);
+            if (in != null) {
+                buffers.release(in);
+                in = null;
+            }
+            if (active != null) {
+                active = null;
+                activeExchanges.decrementAndGet();
+            }
+            writeLock.lock();
+            try {
+                writable.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private final class NioExchange extends HttpExchange {
+        final Connection conn;
+        final String method;
+        final URI uri;
+        final String protocol;
+        final Headers requestHeaders;
+        final Headers responseHeaders = new Headers();
+        final boolean http11;
+        final boolean head;
+        final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        final ResponseStream out = new ResponseStream();
+        final AtomicBoolean done = new AtomicBoolean();
+        boolean keepAlive;
+        NioContext context;
+        InputStream requestBody;
+        OutputStream responseBody = out;
+        volatile int status = -1;
+
+        NioExchange(Connection conn, String method, URI uri, String protocol, Headers requestHeaders,
+                    boolean keepAlive, boolean http11) {
+            this.conn = conn;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.requestHeaders = requestHeaders;
+            this.keepAlive = keepAlive;
+            this.http11 = http11;
+            this.head = method.equals("HEAD");
+        }
+
+        void run() {
+            try {
+                if (context == null || context.handler == null) {
+                    sendResponseHeaders(404, -1);
+                    return;
+                }
+                new Filter.Chain(context.filters, context.handler).doFilter(this);
+            } catch (Throwable t) {
+                // like the JDK server: a handler that fails before completing its response loses the connection
+                finish(false);
+            }
+        }
+
+        /** Hands the connection back to its loop exactly once. */
+        void finish(boolean reusable) {
+            if (!done.compareAndSet(false, true)) return;
+            out.release();
+            boolean reuse = reusable && keepAlive;
+            conn.loop.execute(() -> conn.finished(this, reuse));
+        }
+
+        @Override public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (status != -1) throw new IOException("Response headers already sent");
+            status = rCode;
+            boolean noBody = head || responseLength == -1 || rCode == 204 || rCode == 304 || rCode < 200;
+            if (noBody) {
+                if (!head && rCode >= 200 && rCode != 204 && rCode != 304 && !responseHeaders.containsKey("Content-Length")) {
+                    responseHeaders.set("Content-Length", "0");
+                }
+            } else if (responseLength > 0) {
+                responseHeaders.set("Content-Length", Long.toString(responseLength));
+                out.remaining = responseLength;
+            } else if (http11) {
+                responseHeaders.set("Transfer-Encoding", "chunked");
+                out.chunked = true;
+            } else {
+                // an HTTP/1.0 client learns where the body ends from the connection closing
+                keepAlive = false;
+            }
+            if (!keepAlive) responseHeaders.set("Connection", "close");
+            if (!responseHeaders.containsKey("Date")) responseHeaders.set("Date", date());
+
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("HTTP/1.1 ").append(rCode).append(' ').append(reason(rCode)).append("\r\n");
+            for (Map.Entry<String, List<String>> h : responseHeaders.entrySet()) {
+                for (String v : h.getValue()) sb.append(h.getKey()).append(": ").append(v).append("\r\n");
+            }
+            sb.append("\r\n");
+            out.head = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (noBody) {
+                out.closed = true;
+                try {
+                    conn.write(new ByteBuffer[]{out.head});
+                } catch (IOException e) {
+                    finish(false);
+                    throw e;
+                }
+                out.head = null;
+                finish(true);
+            }
+        }
+
+        @Override public void close() {
+            if (status == -1) {
+                finish(false);
+                return;
+            }
+            try {
+                responseBody.close();
+            } catch (IOException e) {
+                finish(false);
+            }
+        }
+
+        @Override public Headers getRequestHeaders() { return requestHeaders; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return uri; }
+        @Override public String getRequestMethod() { return method; }
+        @Override public HttpContext getHttpContext() { return context; }
+        @Override public InputStream getRequestBody() { return requestBody; }
+        @Override public OutputStream getResponseBody() { return responseBody; }
+        @Override public InetSocketAddress getRemoteAddress() { return conn.remote; }
+        @Override public int getResponseCode() { return status; }
+        @Override public InetSocketAddress getLocalAddress() { return conn.local; }
+        @Override public String getProtocol() { return protocol; }
+        @Override public Object getAttribute(String name) { return attributes.get(name); }
+
+        @Override public void setAttribute(String name, Object value) {
+            if (value == null) attributes.remove(name);
+            else attributes.put(name, value);
+        }
+
+        @Override public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) requestBody = i;
+            if (o != null) responseBody = o;
+        }
+
+        @Override public HttpPrincipal getPrincipal() { return null; }
+
+        /**
+         * The response body. Small writes collect in a pooled direct buffer; each flush goes
+         * out as one gathering write of head (the first time), chunk framing and data.
+         */
+        private final class ResponseStream extends OutputStream {
+            ByteBuffer head;
+            ByteBuffer buf;
+            /** Bytes still owed for a fixed-length body; -1 when unbounded. */
+            long remaining = -1;
+            boolean chunked;
+            boolean closed;
+
+            @Override public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) throw new IOException("Stream is closed");
+                if (status == -1) throw new IOException("Response headers not sent");
+                if (len == 0) return;
+                if (remaining >= 0) {
+                    if (len > remaining) throw new IOException("Too many bytes to write to stream");
+                    remaining -= len;
+                }
+                if (buf == null) buf = buffers.acquire();
+                if (len > buf.remaining()) {
+                    emit(false);
+                    if (len >= buf.capacity()) {
+                        // large writes skip the copy into the buffer
+                        send(ByteBuffer.wrap(b, off, len), false);
+                        return;
+                    }
+                }
+                buf.put(b, off, len);
+            }
+
+            @Override public void flush() throws IOException {
+                if (closed || status == -1) return;
+                emit(false);
+            }
+
+            @Override public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                try {
+                    emit(true);
+                } catch (IOException e) {
+                    finish(false);
+                    throw e;
+                }
+                if (remaining > 0) {
+                    finish(false);
+                    throw new IOException("Insufficient bytes written to stream");
+                }
+                finish(true);
+            }
+
+            private void emit(boolean last) throws IOException {
+                ByteBuffer data = null;
+                if (buf != null) {
+                    buf.flip();
+                    data = buf;
+                }
+                try {
+                    send(data, last);
+                } finally {
+                    if (buf != null) buf.clear();
+                }
+            }
+
+            private void send(ByteBuffer data, boolean last) throws IOException {
+                List<ByteBuffer> parts = new ArrayList<>(5);
+                if (head != null) {
+                    parts.add(head);
+                    head = null;
+                }
+                if (data != null && data.hasRemaining()) {
+                    if (chunked) {
+                        parts.add(ByteBuffer.wrap((Integer.toHexString(data.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+                    }
+                    parts.add(data);
+                    if (chunked) parts.add(ByteBuffer.wrap(CRLF));
+                }
+                if (last && chunked) parts.add(ByteBuffer.wrap(LAST_CHUNK));
+                if (!parts.isEmpty()) conn.write(parts.toArray(new ByteBuffer[0]));
+            }
+
+            void release() {
+                if (buf != null) {
+                    buffers.release(buf);
+                    buf = null;
+                }
+            }
+        }
+    }
+
+    private final class NioContext extends HttpContext {
+        final String path;
+        final List<Filter> filters = new CopyOnWriteArrayList<>();
+        final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        volatile HttpHandler handler;
+        volatile Authenticator authenticator;
+
+        NioContext(String path) {
+            this.path = path;
+        }
+
+        @Override public HttpHandler getHandler() { return handler; }
+
+        @Override public void setHandler(HttpHandler handler) {
+            if (this.handler != null) throw new IllegalArgumentException("Handler already set");
+            this.handler = handler;
+        }
+
+        @Override public String getPath() { return path; }
+        @Override public HttpServer getServer() { return NioHttpServer.this; }
+        @Override public Map<String, Object> getAttributes() { return attributes; }
+        @Override public List<Filter> getFilters() { return filters; }
+
+        @Override public Authenticator setAuthenticator(Authenticator auth) {
+            Authenticator old = authenticator;
+            authenticator = auth;
+            return old;
+        }
+
+        @Override public Authenticator getAuthenticator() { return authenticator; }
+    }
+
+    /** Direct buffers of one size, reused so steady traffic allocates none; at most max are kept. */
+    private static final class BufferPool {
+        private final int size;
+        private final int max;
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        BufferPool(int size, int max) {
+            this.size = size;
+            this.max = max;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer b = free.poll();
+            if (b == null) return ByteBuffer.allocateDirect(size);
+            pooled.decrementAndGet();
+            return b;
+        }
+
+        void release(ByteBuffer b) {
+            b.clear();
+            if (pooled.incrementAndGet() <= max) free.offer(b);
+            else pooled.decrementAndGet();
+        }
+    }
+
+    private record CachedDate(long second, String value) { }
+
+    private static volatile CachedDate cachedDate = new CachedDate(-1, "");
+
+    /** The Date header, formatted at most once a second. */
+    private static String date() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate d = cachedDate;
+        if (d.second != second) {
+            d = new CachedDate(second, AssetCache.HTTP_DATE.format(Instant.ofEpochSecond(second)));
+            cachedDate = d;
+        }
+        return d.value;
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header == null) return false;
+        for (String part : header.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+
+    private static String reason(int code) {
+        return switch (code) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 411 -> "Length Required";
+            case 413 -> "Content Too Large";
+            case 416 -> "Range Not Satisfiable";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 502 -> "Bad Gateway";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "";
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package blog.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client token bucket without a global lock. Each client's bucket is a single
+ * AtomicLong packing the last refill time (high 40 bits, ms since the limiter was
+ * created) and the token count in milli-tokens (low 24 bits), updated with CAS.
+ * The ConcurrentHashMap holding the buckets is itself striped, so clients never
+ * contend with each other. Idle buckets are swept opportunistically.
+ */
+final class RateLimiter {
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long UNIT = 1000; // milli-tokens per token
+
+    private final String name;
+    private final double unitsPerMilli;
+    private final long capacityUnits;
+    private final long idleMillis;
+    private final long origin = System.currentTimeMillis();
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    /**
+     * @param perMinute sustained requests per minute per client
+     * @param burst     bucket size, i.e. requests a fresh client may send back to back
+     */
+    RateLimiter(String name, double perMinute, int burst, long idleMillis) {
+        this.name = name;
+        this.unitsPerMilli = perMinute * UNIT / 60_000.0;
+        this.capacityUnits = Math.min(TOKEN_MASK, Math.max(1, burst) * UNIT);
+        // a bucket is only safe to drop once it would have refilled completely
+        long refill = unitsPerMilli > 0 ? (long) Math.ceil(capacityUnits / unitsPerMilli) : Long.MAX_VALUE / 4;
+        this.idleMillis = Math.max(idleMillis, refill);
+    }
+
+    /** Takes one token for the client. Returns 0 if allowed, otherwise milliseconds until a token is available. */
+    long tryAcquire(String client) {
+        long now = System.currentTimeMillis() - origin;
+        sweepIfDue(now);
+        AtomicLong bucket = buckets.computeIfAbsent(client, k -> new AtomicLong(pack(now, capacityUnits)));
+        while (true) {
+            long s = bucket.get();
+            long last = s >>> TOKEN_BITS;
+            long tokens = s & TOKEN_MASK;
+            long elapsed = Math.max(0, now - last);
+            long added = (long) (elapsed * unitsPerMilli);
+            // keep the old timestamp until at least one milli-token has accrued, so
+            // frequent callers don't lose fractional refill
+            long time = added > 0 ? now : last;
+            long available = Math.min(capacityUnits, tokens + added);
+            if (available >= UNIT) {
+                if (bucket.compareAndSet(s, pack(time, available - UNIT))) return 0;
+                continue;
+            }
+            if (unitsPerMilli <= 0) return 60_000;
+            return Math.max(1, (long) Math.ceil((UNIT - available) / unitsPerMilli));
+        }
+    }
+
+    private void sweepIfDue(long now) {
+        long prev = lastSweep.get();
+        if (now - prev < idleMillis || !lastSweep.compareAndSet(prev, now)) return;
+        Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AtomicLong> e = it.next();
+            if (now - (e.getValue().get() >>> TOKEN_BITS) >= idleMillis) it.remove();
+        }
+    }
+
+    private static long pack(long time, long units) {
+        return (time << TOKEN_BITS) | (units & TOKEN_MASK);
+    }
+
+    String name() { return name; }
+
+    int trackedClients() { return buckets.size(); }
+}
@@ -0,0 +1,126 @@
+package blog.server;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+/**
+ * The Gemini request body with everything but the conversation encoded once. The system
+ * instruction, generation config and the JSON around each turn are UTF-8 fragments built
+ * when the provider is created, by encoding the request records with an empty slot and
+ * cutting the output around it, so they are byte-for-byte what {@link Json} would write.
+ * Per call only the history and message texts are escaped; the fragments go out as they
+ * are through {@link #publisher}, never copied into one array.
+ */
+final class RequestTemplate {
+    private static final byte[] COMMA = {','};
+    private static final byte[] CONTENTS_SLOT = "\"contents\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY_TEXT = "\"\"".getBytes(StandardCharsets.UTF_8);
+
+    /** An encoded body: its fragments in order and their total length. */
+    record Body(List<byte[]> fragments, long length) {
+        /** The fragments joined; for tests and benchmarks, the request path never needs it. */
+        byte[] toByteArray() {
+            byte[] out = new byte[(int) length];
+            int at = 0;
+            for (byte[] f : fragments) {
+                System.arraycopy(f, 0, out, at, f.length);
+                at += f.length;
+            }
+            return out;
+        }
+    }
+
+    private final byte[] head;
+    private final byte[] tail;
+    // role -> {before the text, after it}
+    private final Map<String, byte[][]> turns = new HashMap<>();
+
+    RequestTemplate(GeminiProvider.Content systemInstruction, GeminiProvider.GenerationConfig config) {
+        byte[] frame = Json.toBytes(new GeminiProvider.GeminiRequest(systemInstruction, List.of(), config));
+        // a quoted "contents" can only be the key: quotes inside strings are escaped
+        int slot = indexOf(frame, CONTENTS_SLOT, 0) + CONTENTS_SLOT.length;
+        this.head = Arrays.copyOfRange(frame, 0, slot);
+        this.tail = Arrays.copyOfRange(frame, slot, frame.length);
+        for (String role : List.of("user", "model")) turns.put(role, turnFrame(role));
+    }
+
+    /** The body for these turns ({role, text}, oldest first) followed by the user's message. */
+    Body body(String message, List<String[]> history) {
+        List<byte[]> out = new ArrayList<>(2 + history.size() * 4 + 3);
+        long length = head.length + tail.length;
+        out.add(head);
+        for (String[] turn : history) {
+            length += addTurn(out, turn[0], turn[1]);
+            out.add(COMMA);
+            length++;
+        }
+        length += addTurn(out, "user", message);
+        out.add(tail);
+        return new Body(out, length);
+    }
+
+    private int addTurn(List<byte[]> out, String role, String text) {
+        byte[][] frame = turns.get(role);
+        if (frame == null) frame = turnFrame(role);
+        byte[] escaped = Json.toBytes(text);
+        out.add(frame[0]);
+        out.add(escaped);
+        out.add(frame[1]);
+        return frame[0].length + escaped.length + frame[1].length;
+    }
+
+    /** The JSON of one turn with the text cut out: {"role":"user","parts":[{"text": and }]}. */
+    private static byte[][] turnFrame(String role) {
+        byte[] frame = Json.toBytes(new GeminiProvider.Content(role, List.of(new GeminiProvider.Part(""))));
+        int text = lastIndexOf(frame, EMPTY_TEXT);
+        return new byte[][]{
+                Arrays.copyOfRange(frame, 0, text),
+                Arrays.copyOfRange(frame, text + EMPTY_TEXT.length, frame.length)};
+    }
+
+    /**
+     * Sends the fragments one after another with a known Content-Length. BodyPublishers
+     * .ofByteArrays alone reports an unknown length, which would make the request chunked.
+     */
+    static HttpRequest.BodyPublisher publisher(Body body) {
+        HttpRequest.BodyPublisher fragments = HttpRequest.BodyPublishers.ofByteArrays(body.fragments());
+        return new HttpRequest.BodyPublisher() {
+            @Override public long contentLength() {
+                return body.length();
+            }
+
+            @Override public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                fragments.subscribe(subscriber);
+            }
+        };
+    }
+
+    private static int indexOf(byte[] data, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= data.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        throw new IllegalStateException("template slot not found");
+    }
+
+    private static int lastIndexOf(byte[] data, byte[] needle) {
+        outer:
+        for (int i = data.length - needle.length; i >= 0; i--) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        throw new IllegalStateException("template slot not found");
+    }
+}
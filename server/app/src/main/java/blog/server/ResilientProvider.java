@@ -0,0 +1,221 @@
+package blog.server;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a provider with a circuit breaker and hedged requests.
+ *
+ * Hedging: if a call hasn't answered after the hedge delay (the configured percentile
+ * of recent successful call latencies, at least minHedgeDelayMillis), a second identical
+ * call is started. Whichever answers first wins and the other is cancelled; the call
+ * fails only once every attempt has failed. So a slow tail costs about one extra
+ * percentile's worth of latency instead of the whole timeout. Hedges are limited to
+ * {@link #MAX_HEDGE_FRACTION} of the calls made in the same minute, so a slow upstream
+ * doesn't get twice the load (a budget saved up over a quiet hour would allow exactly
+ * that), and none are sent until {@link #MIN_SAMPLES} latencies have been seen.
+ *
+ * Streams are not hedged (there is no way to merge two half-read streams) but go
+ * through the breaker like everything else.
+ */
+final class ResilientProvider implements LlmProvider {
+    static final double MAX_HEDGE_FRACTION = 0.1;
+    static final int MIN_SAMPLES = 20;
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final LlmProvider delegate;
+    private final CircuitBreaker breaker;
+    private final double hedgeQuantile;
+    private final long minHedgeDelayNanos;
+    private final AtomicReference<Window> window = new AtomicReference<>(new Window(null, System.nanoTime()));
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * Latencies of the current minute, plus the finished previous minute the hedge delay is
+     * read from; and the calls and hedges of the current minute, for the hedge budget.
+     */
+    private record Window(LatencyHistogram current, LatencyHistogram.Snapshot previous, long endsAt,
+                          AtomicLong calls, AtomicLong hedges) {
+        Window(LatencyHistogram.Snapshot previous, long now) {
+            this(new LatencyHistogram(), previous, now + WINDOW_NANOS, new AtomicLong(), new AtomicLong());
+        }
+    }
+
+    /** hedgeQuantile in (0, 1), or 0 to turn hedging off. */
+    ResilientProvider(LlmProvider delegate, CircuitBreaker breaker, double hedgeQuantile, long minHedgeDelayMillis) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.hedgeQuantile = hedgeQuantile;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+    }
+
+    @Override public String name() {
+        return delegate.name();
+    }
+
+    @Override public CompletableFuture<String> generate(String message, List<String[]> turns, long deadlineNanos) {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) return CompletableFuture.failedFuture(openException());
+        window().calls.incrementAndGet();
+        Call call = new Call(message, turns, deadlineNanos);
+        call.attempt(permit, false);
+
+        long delay = hedgeDelayNanos();
+        if (delay > 0 && deadlineNanos - System.nanoTime() > delay) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(call::hedge);
+        }
+        return call.result;
+    }
+
+    @Override public TextStream stream(String message, List<String[]> turns, long timeoutMillis)
+            throws IOException, InterruptedException, UpstreamException {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) throw openException();
+        try {
+            TextStream s = delegate.stream(message, turns, timeoutMillis);
+            breaker.onSuccess(permit);
+            return s;
+        } catch (IOException | UpstreamException | RuntimeException e) {
+            report(permit, e);
+            throw e;
+        } catch (InterruptedException e) {
+            breaker.onIgnored(permit);
+            throw e;
+        }
+    }
+
+    CircuitBreaker breaker() { return breaker; }
+
+    long hedges() { return hedges.sum(); }
+
+    long hedgeWins() { return hedgeWins.sum(); }
+
+    /** Current hedge delay in ns, or 0 while hedging is off or there is too little data. */
+    long hedgeDelayNanos() {
+        if (hedgeQuantile <= 0) return 0;
+        Window w = window.get();
+        LatencyHistogram.Snapshot s = w.previous;
+        if (s == null || s.count() < MIN_SAMPLES) s = w.current.snapshot();
+        if (s.count() < MIN_SAMPLES) return 0;
+        return Math.max(minHedgeDelayNanos, s.percentileNanos(hedgeQuantile));
+    }
+
+    private void recordLatency(long nanos) {
+        window().current.recordNanos(nanos);
+    }
+
+    /** The current minute's window, starting a new one when the minute is over. */
+    private Window window() {
+        long now = System.nanoTime();
+        Window w = window.get();
+        if (now - w.endsAt >= 0) {
+            Window next = new Window(w.current.snapshot(), now);
+            w = window.compareAndSet(w, next) ? next : window.get();
+        }
+        return w;
+    }
+
+    /** Takes one hedge from this minute's budget; false when it is used up. */
+    private boolean tryHedge() {
+        Window w = window();
+        if (w.hedges.incrementAndGet() > w.calls.get() * MAX_HEDGE_FRACTION) {
+            w.hedges.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private CircuitBreaker.OpenException openException() {
+        long retry = breaker.retryAfterMillis();
+        return new CircuitBreaker.OpenException("AI tạm thời không phản hồi, vui lòng thử lại sau.", retry);
+    }
+
+    /** Tells the breaker what a failed attempt says about the upstream. */
+    private void report(CircuitBreaker.Permit permit, Throwable err) {
+        Throwable cause = unwrap(err);
+        if (cause instanceof CancellationException) {
+            breaker.onIgnored(permit);
+        } else if (cause instanceof UpstreamException u && !u.isUpstreamFault()) {
+            breaker.onIgnored(permit);
+        } else if (cause instanceof IOException || cause instanceof TimeoutException
+                || cause instanceof HttpTimeoutException || cause instanceof UpstreamException) {
+            breaker.onFailure(permit);
+        } else {
+            breaker.onIgnored(permit);
+        }
+    }
+
+    private static Throwable unwrap(Throwable err) {
+        Throwable cause = err;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /** One logical call: its attempts and the future the first success completes. */
+    private final class Call {
+        final String message;
+        final List<String[]> turns;
+        final long deadlineNanos;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final List<CompletableFuture<String>> attempts = new CopyOnWriteArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+
+        Call(String message, List<String[]> turns, long deadlineNanos) {
+            this.message = message;
+            this.turns = turns;
+            this.deadlineNanos = deadlineNanos;
+            // the winner (or the caller giving up) cancels whatever is still running
+            result.whenComplete((r, err) -> {
+                for (CompletableFuture<String> a : attempts) a.cancel(true);
+            });
+        }
+
+        void hedge() {
+            if (result.isDone()) return;
+            if (!tryHedge()) return;
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            if (permit == null) return;
+            hedges.increment();
+            attempt(permit, true);
+        }
+
+        void attempt(CircuitBreaker.Permit permit, boolean isHedge) {
+            running.incrementAndGet();
+            long started = System.nanoTime();
+            CompletableFuture<String> a;
+            try {
+                a = delegate.generate(message, turns, deadlineNanos);
+            } catch (RuntimeException e) {
+                a = CompletableFuture.failedFuture(e);
+            }
+            attempts.add(a);
+            if (result.isDone()) a.cancel(true);
+            a.whenComplete((reply, err) -> {
+                if (err == null) {
+                    recordLatency(System.nanoTime() - started);
+                    breaker.onSuccess(permit);
+                    if (result.complete(reply) && isHedge) hedgeWins.increment();
+                } else {
+                    report(permit, err);
+                    // fail only when no other attempt can still answer
+                    if (running.decrementAndGet() == 0) result.completeExceptionally(unwrap(err));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,615 @@
+package blog.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory BM25 index over the site's HTML pages, for /api/search and for grounding
+ * chat prompts in what the blog actually says.
+ *
+ * Pages are stripped to their readable text (the article when there is one, without
+ * navigation, scripts and SVG) and cut into passages of roughly {@link #PASSAGE_WORDS}
+ * words under their nearest heading; a passage is the unit that is scored, and a page
+ * is represented in results by its best passage. Terms are lower-cased with Vietnamese
+ * diacritics folded away ("ngoại lệ" and "ngoai le" are the same query), and adjacent
+ * syllables are also indexed as pairs, since most Vietnamese words are two syllables and
+ * matching the pair ranks "ngoại lệ" above pages that merely contain "lệ".
+ *
+ * The postings are parallel int arrays of passage ids and term frequencies inside an
+ * immutable snapshot, so queries run without locks. The index covers what the server
+ * serves: the pages of an {@link AssetBundle}, indexed once, or the HTML files under the
+ * site root. Those are rescanned by a background thread every recheckMillis, but only
+ * after the asset cache's watcher has seen a change (on every tick when nothing watches);
+ * pages whose mtime or size changed are re-parsed and the snapshot is rebuilt from the
+ * per-page term counts kept from the last parse.
+ */
+final class SearchIndex {
+    static final int PASSAGE_WORDS = 80;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int SNIPPET_CHARS = 240;
+    private static final Set<String> SKIPPED_ELEMENTS =
+            Set.of("script", "style", "svg", "nav", "footer", "noscript", "template", "button", "form");
+    private static final Set<String> BLOCK_ELEMENTS = Set.of("p", "div", "section", "article", "header", "li", "ul",
+            "ol", "pre", "blockquote", "table", "tr", "td", "th", "br", "hr", "dt", "dd", "figcaption");
+    // folded function words and greetings: matching them says nothing about what a question is about
+    private static final Set<String> STOP_WORDS = Set.of(
+            "la", "gi", "cua", "va", "cac", "co", "duoc", "cho", "voi", "trong", "nhung", "mot", "nay", "nao",
+            "khi", "thi", "ma", "de", "o", "ban", "minh", "toi", "em", "anh", "the", "nhu", "vay", "sao", "khong",
+            "chua", "da", "dang", "se", "rat", "lam", "hay", "hoac", "nen", "can", "ve", "tu", "den", "tai", "vi",
+            "neu", "xin", "chao", "cam", "on", "a", "oi", "nhe", "giup", "hoi", "muon", "biet", "cai",
+            "an", "is", "are", "what", "how", "of", "to", "in", "and", "for", "do", "does", "with", "hi", "hello");
+    private static final Pattern META = Pattern.compile("(?i)<meta\\s+name=\"([^\"]+)\"\\s+content=\"([^\"]*)\"");
+    private static final Set<String> HEADINGS = Set.of("h1", "h2", "h3", "h4", "h5", "h6");
+
+    /** A page's best passage for a query; coverage is the share of the query's words (less stop words) it contains. */
+    record Hit(String url, String title, String heading, String snippet, String text, double score, double coverage) { }
+
+    /** Scored unit. terms/freqs are its distinct terms and their counts; length counts words. */
+    private record Passage(String url, String title, String heading, String text, int length,
+                           String[] terms, int[] freqs) { }
+
+    private record Page(long lastModifiedMillis, long size, List<Passage> passages) { }
+
+    private record Postings(int[] ids, int[] freqs) { }
+
+    private record Snapshot(Passage[] passages, Map<String, Postings> postings, double avgLength, int pages) { }
+
+    private final long recheckMillis;
+    private final ReentrantLock refreshing = new ReentrantLock();
+    // the rest is only touched under refreshing
+    // url path -> last parse
+    private final Map<String, Page> pages = new HashMap<>();
+    // site root being indexed; null for a bundle, which never changes
+    private Path root;
+    private AssetCache cache;
+    // the cache generation the last scan started from
+    private long scannedGeneration;
+    private Thread refresher;
+    private volatile Snapshot snapshot = new Snapshot(new Passage[0], Map.of(), 0, 0);
+
+    /** An empty index; {@link #indexBundle} or {@link #indexDirectory} fills it. */
+    SearchIndex(long recheckMillis) {
+        this.recheckMillis = Math.max(1, recheckMillis);
+    }
+
+    /** Indexes the bundle's pages, replacing whatever was indexed before. */
+    void indexBundle(AssetBundle bundle) {
+        refreshing.lock();
+        try {
+            root = null;
+            cache = null;
+            pages.clear();
+            for (String url : bundle.paths()) {
+                AssetCache.Asset asset = bundle.get(url);
+                if (!HtmlRewriter.isHtml(asset.contentType)) continue;
+                ByteBuffer body = asset.select(Compression.Encoding.IDENTITY).mapped.duplicate();
+                String html = StandardCharsets.UTF_8.decode(body).toString();
+                pages.put(url, new Page(asset.lastModifiedMillis, asset.length, parse(url, html)));
+            }
+            snapshot = build(pages);
+        } finally {
+            refreshing.unlock();
+        }
+    }
+
+    /**
+     * Indexes the HTML files under root now, then keeps them current from a background
+     * thread, rescanning when cache reports a change (or on every tick if it isn't watching).
+     */
+    void indexDirectory(Path root, AssetCache cache) {
+        refreshing.lock();
+        try {
+            Path normalized = root.toAbsolutePath().normalize();
+            if (!normalized.equals(this.root)) pages.clear();
+            this.root = normalized;
+            this.cache = cache;
+            scannedGeneration = cache.generation();
+            try {
+                rescan();
+            } catch (IOException e) {
+                // start empty; the refresher tries again
+                System.err.println("Search index: " + e.getMessage());
+            }
+            if (refresher == null) {
+                refresher = new Thread(this::refreshLoop, "search-index");
+                refresher.setDaemon(true);
+                refresher.start();
+            }
+        } finally {
+            refreshing.unlock();
+        }
+    }
+
+    int pages() { return snapshot.pages; }
+
+    int passages() { return snapshot.passages.length; }
+
+    /** Best passage of each matching page, best first. */
+    List<Hit> search(String query, int limit) {
+        Snapshot s = snapshot;
+        List<String> words = new ArrayList<>();
+        List<String> terms = terms(query, words);
+        Set<String> distinctWords = new LinkedHashSet<>(words);
+        distinctWords.removeAll(STOP_WORDS);
+        terms.removeAll(STOP_WORDS);
+        if (distinctWords.isEmpty() || s.passages.length == 0) return List.of();
+
+        int n = s.passages.length;
+        double[] scores = new double[n];
+        int[] matchedWords = new int[n];
+        for (String term : new LinkedHashSet<>(terms)) {
+            Postings p = s.postings.get(term);
+            if (p == null) continue;
+            int df = p.ids.length;
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            boolean word = distinctWords.contains(term);
+            for (int i = 0; i < df; i++) {
+                int id = p.ids[i];
+                int tf = p.freqs[i];
+                double norm = K1 * (1 - B + B * s.passages[id].length / s.avgLength);
+                scores[id] += idf * tf * (K1 + 1) / (tf + norm);
+                if (word) matchedWords[id]++;
+            }
+        }
+
+        // keep each page's best passage
+        Map<String, Integer> best = new HashMap<>();
+        for (int id = 0; id < n; id++) {
+            if (scores[id] <= 0) continue;
+            Integer prev = best.get(s.passages[id].url);
+            if (prev == null || scores[id] > scores[prev]) best.put(s.passages[id].url, id);
+        }
+        Integer[] ids = best.values().toArray(new Integer[0]);
+        Arrays.sort(ids, Comparator.comparingDouble((Integer id) -> -scores[id]));
+
+        List<Hit> hits = new ArrayList<>(Math.min(limit, ids.length));
+        for (int i = 0; i < ids.length && i < limit; i++) {
+            Passage p = s.passages[ids[i]];
+            hits.add(new Hit(p.url, p.title, p.heading, snippet(p.text, distinctWords), p.text,
+                    scores[ids[i]], (double) matchedWords[ids[i]] / distinctWords.size()));
+        }
+        return hits;
+    }
+
+    /**
+     * Passages confident enough to hand the model as context: most of the question's words
+     * (two of two, two of three, three of four...), and scoring within half of the best hit.
+     */
+    List<Hit> context(String question, int max) {
+        List<Hit> hits = search(question, max);
+        if (hits.isEmpty()) return hits;
+        double floor = hits.get(0).score / 2;
+        List<Hit> out = new ArrayList<>(hits.size());
+        for (Hit h : hits) {
+            if (h.coverage >= 0.6 && h.score >= floor) out.add(h);
+        }
+        return out;
+    }
+
+    private void refreshLoop() {
+        while (true) {
+            try {
+                Thread.sleep(recheckMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            refreshing.lock();
+            try {
+                if (root == null) continue;
+                if (cache.watching()) {
+                    // taken before the scan, so a change made during it triggers another
+                    long generation = cache.generation();
+                    if (generation == scannedGeneration) continue;
+                    scannedGeneration = generation;
+                }
+                rescan();
+            } catch (IOException e) {
+                System.err.println("Search index: " + e.getMessage());
+            } finally {
+                refreshing.unlock();
+            }
+        }
+    }
+
+    /** Re-parses new and changed pages, drops removed ones, and publishes a new snapshot if anything moved. */
+    private void rescan() throws IOException {
+        Map<String, BasicFileAttributes> found = new HashMap<>();
+        Map<String, Path> files = new HashMap<>();
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                    // the server sources and dot-directories are not part of the site
+                    if (!dir.equals(root) && (name.startsWith(".") || name.equals("server"))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                    if (attrs.isRegularFile() && (name.endsWith(".html") || name.endsWith(".htm"))) {
+                        String url = urlPath(file);
+                        found.put(url, attrs);
+                        files.put(url, file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        boolean changed = pages.keySet().retainAll(found.keySet());
+        for (Map.Entry<String, BasicFileAttributes> e : found.entrySet()) {
+            long mtime = e.getValue().lastModifiedTime().toMillis();
+            long size = e.getValue().size();
+            Page page = pages.get(e.getKey());
+            if (page != null && page.lastModifiedMillis == mtime && page.size == size) continue;
+            String html;
+            try {
+                html = Files.readString(files.get(e.getKey()), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                // deleted or unreadable between the walk and the read; picked up on the next scan
+                pages.remove(e.getKey());
+                changed = true;
+                continue;
+            }
+            pages.put(e.getKey(), new Page(mtime, size, parse(e.getKey(), html)));
+            changed = true;
+        }
+        if (changed) snapshot = build(pages);
+    }
+
+    private String urlPath(Path file) {
+        StringBuilder sb = new StringBuilder();
+        for (Path part : root.relativize(file)) sb.append('/').append(part);
+        return sb.toString();
+    }
+
+    private static Snapshot build(Map<String, Page> pages) {
+        List<Passage> all = new ArrayList<>();
+        pages.keySet().stream().sorted().forEach(url -> all.addAll(pages.get(url).passages));
+        Map<String, int[][]> building = new HashMap<>(); // term -> {ids, freqs, {size}}
+        long totalLength = 0;
+        for (int id = 0; id < all.size(); id++) {
+            Passage p = all.get(id);
+            totalLength += p.length;
+            for (int i = 0; i < p.terms.length; i++) {
+                int[][] b = building.computeIfAbsent(p.terms[i], t -> new int[][]{new int[4], new int[4], {0}});
+                int size = b[2][0];
+                if (size == b[0].length) {
+                    b[0] = Arrays.copyOf(b[0], size * 2);
+                    b[1] = Arrays.copyOf(b[1], size * 2);
+                }
+                b[0][size] = id;
+                b[1][size] = p.freqs[i];
+                b[2][0] = size + 1;
+            }
+        }
+        Map<String, Postings> postings = new HashMap<>(building.size() * 2);
+        for (Map.Entry<String, int[][]> e : building.entrySet()) {
+            int size = e.getValue()[2][0];
+            postings.put(e.getKey(), new Postings(Arrays.copyOf(e.getValue()[0], size), Arrays.copyOf(e.getValue()[1], size)));
+        }
+        double avg = all.isEmpty() ? 0 : (double) totalLength / all.size();
+        return new Snapshot(all.toArray(new Passage[0]), postings, Math.max(1, avg), pages.size());
+    }
+
+    // ---- HTML to passages ----
+
+    /** Splits a page into passages under their headings. */
+    private static List<Passage> parse(String url, String html) {
+        String title = title(html);
+        List<String[]> blocks = blocks(readableRegion(html)); // {text, "h" if heading}
+        List<Passage> out = new ArrayList<>();
+        // the summary the page gives search engines; its keywords only count toward matching
+        String description = meta(html, "description");
+        String keywords = meta(html, "keywords");
+        if (!description.isEmpty() || !keywords.isEmpty()) {
+            out.add(passage(url, title, title, description.isEmpty() ? keywords : description, keywords));
+        }
+        String heading = title;
+        StringBuilder text = new StringBuilder();
+        int words = 0;
+        for (String[] block : blocks) {
+            if (block[1] != null) {
+                if (words > 0) out.add(passage(url, title, heading, text.toString(), ""));
+                text.setLength(0);
+                words = 0;
+                heading = block[0];
+                continue;
+            }
+            if (!text.isEmpty()) text.append(' ');
+            text.append(block[0]);
+            words += wordCount(block[0]);
+            if (words >= PASSAGE_WORDS) {
+                out.add(passage(url, title, heading, text.toString(), ""));
+                text.setLength(0);
+                words = 0;
+            }
+        }
+        if (words > 0) out.add(passage(url, title, heading, text.toString(), ""));
+        return out;
+    }
+
+    private static Passage passage(String url, String title, String heading, String text, String extra) {
+        // the heading counts toward the passage's terms, so a section title match ranks its body
+        List<String> words = new ArrayList<>();
+        List<String> terms = terms(heading + "\n" + text + "\n" + extra, words);
+        Map<String, Integer> counts = new HashMap<>();
+        for (String t : terms) counts.merge(t, 1, Integer::sum);
+        String[] keys = counts.keySet().toArray(new String[0]);
+        int[] freqs = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) freqs[i] = counts.get(keys[i]);
+        return new Passage(url, title, heading, text, words.size(), keys, freqs);
+    }
+
+    private static String title(String html) {
+        int start = indexOfIgnoreCase(html, "<title", 0);
+        if (start < 0) return "";
+        start = html.indexOf('>', start) + 1;
+        int end = indexOfIgnoreCase(html, "</title", start);
+        if (start <= 0 || end < 0) return "";
+        String t = decodeEntities(html.substring(start, end)).trim();
+        // "Article | Site name"
+        int bar = t.lastIndexOf(" | ");
+        return bar > 0 ? t.substring(0, bar).trim() : t;
+    }
+
+    /** content of {@code <meta name="...">}, or "". */
+    private static String meta(String html, String name) {
+        Matcher m = META.matcher(html);
+        while (m.find()) {
+            if (m.group(1).equalsIgnoreCase(name)) return collapse(decodeEntities(m.group(2)));
+        }
+        return "";
+    }
+
+    /** The article element if the page has one, else the body. */
+    private static String readableRegion(String html) {
+        int start = indexOfIgnoreCase(html, "<article", 0);
+        String close = "</article";
+        if (start < 0) {
+            start = indexOfIgnoreCase(html, "<body", 0);
+            close = "</body";
+        }
+        if (start < 0) return html;
+        int end = indexOfIgnoreCase(html, close, start);
+        return html.substring(start, end < 0 ? html.length() : end);
+    }
+
+    /** Text blocks in document order, whitespace collapsed; headings flagged. */
+    private static List<String[]> blocks(String html) {
+        List<String[]> out = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        boolean inHeading = false;
+        int i = 0;
+        int n = html.length();
+        while (i < n) {
+            char c = html.charAt(i);
+            if (c != '<') {
+                int next = html.indexOf('<', i);
+                if (next < 0) next = n;
+                text.append(html, i, next);
+                i = next;
+                continue;
+            }
+            if (html.startsWith("<!--", i)) {
+                int end = html.indexOf("-->", i + 4);
+                i = end < 0 ? n : end + 3;
+                continue;
+            }
+            int end = html.indexOf('>', i);
+            if (end < 0) break;
+            boolean closing = i + 1 < n && html.charAt(i + 1) == '/';
+            String name = tagName(html, closing ? i + 2 : i + 1);
+            i = end + 1;
+            if (!closing && SKIPPED_ELEMENTS.contains(name) && html.charAt(end - 1) != '/') {
+                int skip = indexOfIgnoreCase(html, "</" + name, i);
+                int gt = skip < 0 ? -1 : html.indexOf('>', skip);
+                i = gt < 0 ? n : gt + 1;
+                continue;
+            }
+            boolean heading = HEADINGS.contains(name);
+            if (heading || BLOCK_ELEMENTS.contains(name)) {
+                flush(out, text, inHeading);
+                if (heading) inHeading = !closing;
+            }
+        }
+        flush(out, text, inHeading);
+        return out;
+    }
+
+    private static void flush(List<String[]> out, StringBuilder raw, boolean heading) {
+        String t = collapse(decodeEntities(raw.toString()));
+        raw.setLength(0);
+        if (!t.isEmpty()) out.add(new String[]{t, heading ? "h" : null});
+    }
+
+    private static String tagName(String html, int from) {
+        int end = from;
+        while (end < html.length() && (Character.isLetterOrDigit(html.charAt(end)) || html.charAt(end) == '-')) end++;
+        return html.substring(from, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static String collapse(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = !sb.isEmpty();
+            } else {
+                if (space) sb.append(' ');
+                sb.append(c);
+                space = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String decodeEntities(String s) {
+        if (s.indexOf('&') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int semi = c == '&' ? s.indexOf(';', i) : -1;
+            if (semi < 0 || semi - i > 10) {
+                sb.append(c);
+                continue;
+            }
+            String entity = s.substring(i + 1, semi);
+            String decoded = switch (entity) {
+                case "amp" -> "&";
+                case "lt" -> "<";
+                case "gt" -> ">";
+                case "quot" -> "\"";
+                case "apos" -> "'";
+                case "nbsp" -> " ";
+                default -> numericEntity(entity);
+            };
+            if (decoded == null) {
+                sb.append(c);
+            } else {
+                sb.append(decoded);
+                i = semi;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String numericEntity(String entity) {
+        if (entity.length() < 2 || entity.charAt(0) != '#') return null;
+        try {
+            int cp = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                    ? Integer.parseInt(entity.substring(2), 16)
+                    : Integer.parseInt(entity.substring(1));
+            return Character.isValidCodePoint(cp) ? new String(Character.toChars(cp)) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int indexOfIgnoreCase(String s, String needle, int from) {
+        int last = s.length() - needle.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (s.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+
+    // ---- terms ----
+
+    // folded form of each BMP char below 0x2000 (covers Latin, Vietnamese and combining marks)
+    private static final char[] FOLD = new char[0x2000];
+
+    static {
+        for (char c = 0; c < FOLD.length; c++) {
+            String d = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            FOLD[c] = Character.toLowerCase(d.charAt(0));
+        }
+        FOLD['đ'] = 'd';
+        FOLD['Đ'] = 'd';
+    }
+
+    /** Lower-cased without diacritics, one char for one char, so offsets carry over to the original. */
+    static char fold(char c) {
+        return c < FOLD.length ? FOLD[c] : Character.toLowerCase(c);
+    }
+
+    /** Words of text, then each pair of adjacent words within a block; words also go into words. */
+    static List<String> terms(String text, List<String> words) {
+        List<String> out = new ArrayList<>();
+        String prev = null;
+        StringBuilder w = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                w.append(fold(c));
+                continue;
+            }
+            // decomposed text: the accent belongs to the word, and folding drops it
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (!w.isEmpty()) {
+                String word = w.toString();
+                w.setLength(0);
+                out.add(word);
+                words.add(word);
+                if (prev != null) out.add(prev + " " + word);
+                prev = word;
+            }
+            // a pair doesn't span sentence punctuation or block breaks
+            if (c == '.' || c == ',' || c == ';' || c == ':' || c == '\n' || c == '?' || c == '!' || c == '(' || c == ')') {
+                prev = null;
+            }
+        }
+        return out;
+    }
+
+    private static int wordCount(String text) {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) count++;
+            inWord = letter;
+        }
+        return count;
+    }
+
+    /** About SNIPPET_CHARS of text around the first query word, cut at spaces. */
+    private static String snippet(String text, Set<String> words) {
+        if (text.length() <= SNIPPET_CHARS) return text;
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) folded.append(fold(text.charAt(i)));
+        int first = -1;
+        for (String w : words) {
+            int at = wordIndex(folded, w);
+            if (at >= 0 && (first < 0 || at < first)) first = at;
+        }
+        int start = Math.max(0, first - SNIPPET_CHARS / 4);
+        if (start > 0) {
+            int space = text.indexOf(' ', start);
+            start = space < 0 || space > first ? start : space + 1;
+        }
+        int end = Math.min(text.length(), start + SNIPPET_CHARS);
+        if (end < text.length()) {
+            int space = text.lastIndexOf(' ', end);
+            if (space > start) end = space;
+        }
+        return (start > 0 ? "…" : "") + text.substring(start, end) + (end < text.length() ? "…" : "");
+    }
+
+    /** First index of word in folded text at word boundaries, or -1. */
+    private static int wordIndex(CharSequence folded, String word) {
+        String s = folded.toString();
+        int from = 0;
+        while (true) {
+            int at = s.indexOf(word, from);
+            if (at < 0) return -1;
+            int end = at + word.length();
+            boolean startOk = at == 0 || !Character.isLetterOrDigit(s.charAt(at - 1));
+            boolean endOk = end == s.length() || !Character.isLetterOrDigit(s.charAt(end));
+            if (startOk && endOk) return at;
+            from = at + 1;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package blog.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversation turns kept on the server under a random session id, so the page sends
+ * only its new message instead of the whole history every time.
+ *
+ * Each session holds at most the window that is sent upstream (maxTurns turns,
+ * maxChars characters, newest kept), so it never grows with the conversation. The store
+ * as a whole is bounded by an approximate byte budget: least recently used sessions are
+ * dropped once it is exceeded, and sessions idle for longer than idleMillis are dropped
+ * whenever a lookup or an eviction pass reaches them. A dropped session starts over empty.
+ */
+final class SessionStore {
+    // rough heap cost of a session and of a turn beyond their text (objects, map entry, id)
+    private static final int SESSION_OVERHEAD = 160;
+    private static final int TURN_OVERHEAD = 64;
+    private static final int ID_BYTES = 16;
+
+    private static final class Session {
+        final ArrayDeque<String[]> turns = new ArrayDeque<>();
+        long bytes = SESSION_OVERHEAD;
+        long lastUsed = System.currentTimeMillis();
+    }
+
+    private final long maxBytes;
+    private final long idleMillis;
+    private final int maxTurns;
+    private final int maxChars;
+    private final SecureRandom random = new SecureRandom();
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    SessionStore(long maxBytes, long idleMillis, int maxTurns, int maxChars) {
+        this.maxBytes = maxBytes;
+        this.idleMillis = idleMillis;
+        this.maxTurns = Math.max(0, maxTurns);
+        this.maxChars = Math.max(0, maxChars);
+    }
+
+    /**
+     * A new session's id and the turns to send with its first message. The turns are taken
+     * with the session, so they are there even if the budget evicts it straight away.
+     */
+    record Created(String id, List<String[]> turns) { }
+
+    /** Starts a session seeded with turns (oldest first; only the most recent window is kept). */
+    synchronized Created create(List<String[]> seed) {
+        String id;
+        do {
+            byte[] b = new byte[ID_BYTES];
+            random.nextBytes(b);
+            id = Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+        } while (sessions.containsKey(id));
+        Session s = new Session();
+        sessions.put(id, s);
+        bytes += s.bytes;
+        for (String[] turn : recent(seed, maxTurns, maxChars)) add(s, turn[0], turn[1]);
+        trim(s);
+        List<String[]> turns = recent(new ArrayList<>(s.turns), maxTurns, maxChars);
+        evict();
+        return new Created(id, turns);
+    }
+
+    /** The session's turns, oldest first, ready to send upstream; null if the id is unknown or expired. */
+    synchronized List<String[]> turns(String id) {
+        Session s = live(id);
+        if (s == null) return null;
+        s.lastUsed = System.currentTimeMillis();
+        return recent(new ArrayList<>(s.turns), maxTurns, maxChars);
+    }
+
+    /** Records one exchange; does nothing if the session has gone away meanwhile. */
+    synchronized void append(String id, String userText, String modelText) {
+        Session s = live(id);
+        if (s == null) return;
+        s.lastUsed = System.currentTimeMillis();
+        add(s, "user", userText);
+        add(s, "model", modelText);
+        trim(s);
+        evict();
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * The longest run of most recent turns within maxTurns and maxChars, oldest first.
+     * A leading model turn is dropped so the window opens with the user, as the API expects.
+     */
+    static List<String[]> recent(List<String[]> turns, int maxTurns, int maxChars) {
+        int start = turns.size();
+        long chars = 0;
+        while (start > 0 && turns.size() - start < maxTurns) {
+            long next = chars + turns.get(start - 1)[1].length();
+            if (next > maxChars) break;
+            chars = next;
+            start--;
+        }
+        if (start < turns.size() && "model".equals(turns.get(start)[0])) start++;
+        return start == 0 ? turns : turns.subList(start, turns.size());
+    }
+
+    private Session live(String id) {
+        if (id == null) return null;
+        Session s = sessions.get(id);
+        if (s != null && System.currentTimeMillis() - s.lastUsed > idleMillis) {
+            remove(id, s);
+            s = null;
+        }
+        return s;
+    }
+
+    private void add(Session s, String role, String text) {
+        s.turns.addLast(new String[]{role, text});
+        long b = TURN_OVERHEAD + 2L * text.length();
+        s.bytes += b;
+        bytes += b;
+    }
+
+    /** Drops the oldest turns the window would never send again. */
+    private void trim(Session s) {
+        long chars = 0;
+        for (String[] t : s.turns) chars += t[1].length();
+        while (!s.turns.isEmpty() && (s.turns.size() > maxTurns || chars > maxChars)) {
+            String[] t = s.turns.removeFirst();
+            chars -= t[1].length();
+            long b = TURN_OVERHEAD + 2L * t[1].length();
+            s.bytes -= b;
+            bytes -= b;
+        }
+    }
+
+    /** Idle sessions from the least recently used end first, then whatever is needed to get under budget. */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Session s = it.next().getValue();
+            if (bytes <= maxBytes && now - s.lastUsed <= idleMillis) break;
+            it.remove();
+            bytes -= s.bytes;
+        }
+    }
+
+    private void remove(String id, Session s) {
+        sessions.remove(id);
+        bytes -= s.bytes;
+    }
+}
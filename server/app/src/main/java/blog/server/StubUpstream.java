@@ -0,0 +1,97 @@
+package blog.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stand-in for the Gemini API so load runs and benchmarks don't spend quota: answers
+ * generateContent with a canned response and streamGenerateContent with the same
+ * response as one SSE event, after an optional delay. Point GEMINI_BASE_URL at
+ * {@link #baseUrl()}. Runs in-process, or on its own through {@link #main}.
+ */
+final class StubUpstream {
+    static final String DEFAULT_REPLY = "Xin chào! Đây là câu trả lời giả lập từ server stub.";
+
+    private static final byte[] SSE_DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SSE_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private StubUpstream(InetSocketAddress address, byte[] response, long delayMillis) throws IOException {
+        // same as Main.enableNoDelay, without initializing Main's config before LoadGen sets it
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(address, 0);
+        server.createContext("/", ex -> reply(ex, response, delayMillis));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Loopback stub on a free port. */
+    static StubUpstream start(byte[] response, long delayMillis) throws IOException {
+        return new StubUpstream(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), response, delayMillis);
+    }
+
+    static StubUpstream start(int port, byte[] response, long delayMillis) throws IOException {
+        return new StubUpstream(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), response, delayMillis);
+    }
+
+    /** A generateContent response whose single candidate says text. */
+    static byte[] geminiResponse(String text) {
+        return Json.toBytes(Map.of("candidates", List.of(Map.of(
+                "content", Map.of("role", "model", "parts", List.of(Map.of("text", text))),
+                "finishReason", "STOP"))));
+    }
+
+    /** Value for GEMINI_BASE_URL. */
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta";
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void reply(HttpExchange ex, byte[] response, long delayMillis) throws IOException {
+        try (ex) {
+            ex.getRequestBody().readAllBytes();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            boolean stream = ex.getRequestURI().getPath().endsWith(":streamGenerateContent");
+            ex.getResponseHeaders().set("Content-Type", stream ? "text/event-stream" : "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, stream ? 0 : response.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                if (stream) out.write(SSE_DATA);
+                out.write(response);
+                if (stream) out.write(SSE_END);
+            }
+        }
+    }
+
+    /** {@code java -cp blog-server.jar blog.server.StubUpstream [--port 9911] [--delay-ms 200] [--reply text]}; runs until killed. */
+    public static void main(String[] args) throws IOException {
+        LoadGen.Args a = LoadGen.Args.parse(args);
+        int port = a.intValue("port", 9911);
+        long delay = a.intValue("delay-ms", 200);
+        StubUpstream stub = start(port, geminiResponse(a.value("reply", DEFAULT_REPLY)), delay);
+        System.out.println("Stub Gemini at " + stub.baseUrl() + " (delay " + delay + " ms)");
+        System.out.println("Run the server with GEMINI_BASE_URL=" + stub.baseUrl() + " and any GEMINI_API_KEY");
+    }
+}
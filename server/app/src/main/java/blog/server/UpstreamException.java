@@ -0,0 +1,28 @@
+package blog.server;
+
+/**
+ * The upstream answered, but not usefully: an error status, or a body without reply text.
+ * The handler turns it into a 502 carrying the raw upstream body.
+ */
+final class UpstreamException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int upstreamStatus;
+    private final String raw;
+
+    /** upstreamStatus is the HTTP status the upstream sent, or 0 for a 2xx that had no usable reply. */
+    UpstreamException(String message, int upstreamStatus, String raw) {
+        super(message);
+        this.upstreamStatus = upstreamStatus;
+        this.raw = raw;
+    }
+
+    int upstreamStatus() { return upstreamStatus; }
+
+    String raw() { return raw; }
+
+    /** 5xx and 429 say the upstream is struggling; other 4xx are about our request. */
+    boolean isUpstreamFault() {
+        return upstreamStatus >= 500 || upstreamStatus == 429;
+    }
+}
@@ -0,0 +1,69 @@
+package blog.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory exchange so handlers can be measured without sockets or the HttpServer
+ * dispatcher. The response body is counted and discarded.
+ */
+final class BenchExchange extends HttpExchange {
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 8000);
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 50000);
+
+    private final String method;
+    private final URI uri;
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private InputStream requestBody;
+    private OutputStream responseBody;
+    private long written;
+    private int status = -1;
+
+    BenchExchange(String method, String path, byte[] body) {
+        this.method = method;
+        this.uri = URI.create(path);
+        this.requestBody = new ByteArrayInputStream(body == null ? new byte[0] : body);
+        this.responseBody = new OutputStream() {
+            @Override public void write(int b) { written++; }
+            @Override public void write(byte[] b, int off, int len) { written += len; }
+        };
+    }
+
+    /** Status sent, or -1 if the handler never sent headers. */
+    int status() { return status; }
+
+    long bytesWritten() { return written; }
+
+    @Override public Headers getRequestHeaders() { return requestHeaders; }
+    @Override public Headers getResponseHeaders() { return responseHeaders; }
+    @Override public URI getRequestURI() { return uri; }
+    @Override public String getRequestMethod() { return method; }
+    @Override public HttpContext getHttpContext() { return null; }
+    @Override public void close() { }
+    @Override public InputStream getRequestBody() { return requestBody; }
+    @Override public OutputStream getResponseBody() { return responseBody; }
+    @Override public void sendResponseHeaders(int rCode, long responseLength) { status = rCode; }
+    @Override public InetSocketAddress getRemoteAddress() { return REMOTE; }
+    @Override public int getResponseCode() { return status; }
+    @Override public InetSocketAddress getLocalAddress() { return LOCAL; }
+    @Override public String getProtocol() { return "HTTP/1.1"; }
+    @Override public Object getAttribute(String name) { return attributes.get(name); }
+    @Override public void setAttribute(String name, Object value) { attributes.put(name, value); }
+    @Override public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) requestBody = i;
+        if (o != null) responseBody = o;
+    }
+    @Override public HttpPrincipal getPrincipal() { return null; }
+}
@@ -0,0 +1,22 @@
+package blog.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: plain JMH command line, with the GC profiler
+ * added unless another profiler is asked for, so every run reports allocation
+ * rates (gc.alloc.rate, gc.alloc.rate.norm = bytes per operation).
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> a = new ArrayList<>(List.of(args));
+        if (!a.contains("-prof") && !a.contains("-l") && !a.contains("-h") && !a.contains("-lprof")) {
+            a.add("-prof");
+            a.add("gc");
+        }
+        org.openjdk.jmh.Main.main(a.toArray(String[]::new));
+    }
+}
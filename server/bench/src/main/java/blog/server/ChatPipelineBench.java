@@ -0,0 +1,94 @@
+package blog.server;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST /api/chat end to end over loopback: body parsing, validation, the async upstream
+ * call to an in-process stub, reply extraction and the JSON response. The chat cache is
+ * off so every operation reaches the stub. The client and stub run in the same JVM, so
+ * their allocations are included in the GC profiler's numbers. engine picks the HTTP server
+ * the routes run on: the JDK one or {@link NioHttpServer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ChatPipelineBench {
+    @Param({"jdk", "nio"})
+    String engine;
+
+    private StubUpstream stub;
+    private HttpServer server;
+    private Path root;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = StubUpstream.start(Fixtures.bytes("gemini-response.json"), 0);
+        // Main reads its configuration once, when the class is first used, so this must
+        // happen before anything touches Main (each benchmark runs in its own fork)
+        System.setProperty("GEMINI_API_KEY", "bench");
+        System.setProperty("GEMINI_BASE_URL", stub.baseUrl());
+        System.setProperty("CHAT_CACHE_SIZE", "0");
+        System.setProperty("CHAT_RATE_PER_MINUTE", "1000000000");
+        System.setProperty("CHAT_RATE_BURST", "10000");
+        System.setProperty("API_MAX_CONCURRENCY", "256");
+        System.setProperty("SHED_MAX_UPSTREAM_IN_FLIGHT", "0");
+        System.setProperty("SHED_LATENCY_MS", "0");
+        System.setProperty("HTTP_ENGINE", engine);
+
+        root = Files.createTempDirectory("bench-site");
+        server = Main.start(Main.newStaticHandler(root), 0);
+        client = HttpClient.newHttpClient();
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/api/chat"))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(Fixtures.bytes("chat-request.json")))
+                .build();
+        String first = chat();
+        if (!first.contains("\"ok\":true")) throw new IllegalStateException("unexpected reply: " + first);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop(0);
+        stub.stop();
+        Files.deleteIfExists(root);
+    }
+
+    @Benchmark
+    public String chat() throws IOException {
+        try {
+            HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (resp.statusCode() != 200) throw new IllegalStateException("HTTP " + resp.statusCode() + ": " + resp.body());
+            return resp.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
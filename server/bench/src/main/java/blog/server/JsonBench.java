@@ -0,0 +1,71 @@
+package blog.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Json parse/encode on real payloads: the sample request body (payload.json), a chat
+ * request with a full history, and a captured Gemini generateContent response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBench {
+    @Param({"payload.json", "chat-request.json", "gemini-response.json"})
+    String fixture;
+
+    private byte[] bytes;
+    private String text;
+    private Object tree;
+
+    @Setup
+    public void setup() {
+        bytes = Fixtures.bytes(fixture);
+        text = new String(bytes, StandardCharsets.UTF_8);
+        // payload.json is saved with a BOM; only the byte parser skips it
+        if (!text.isEmpty() && text.charAt(0) == '\uFEFF') text = text.substring(1);
+        tree = Json.parse(text);
+    }
+
+    @Benchmark
+    public Object parseString() {
+        return Json.parse(text);
+    }
+
+    @Benchmark
+    public Object parseStream() throws IOException {
+        return Json.parse(new ByteArrayInputStream(bytes), Long.MAX_VALUE, 64);
+    }
+
+    @Benchmark
+    public String stringify() {
+        return Json.stringify(tree);
+    }
+
+    @Benchmark
+    public int encode() {
+        Json.Utf8Buffer buf = Json.encode(tree);
+        try {
+            return buf.length();
+        } finally {
+            Json.release(buf);
+        }
+    }
+}
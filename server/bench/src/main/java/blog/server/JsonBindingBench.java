@@ -0,0 +1,83 @@
+package blog.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The typed paths the chat route actually uses: binding the request body to
+ * {@link Main.ChatRequest}, encoding the upstream request (records through Json,
+ * and the pre-encoded {@link RequestTemplate} the provider now uses), and pulling
+ * the reply text out of a Gemini response with the path selector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBindingBench {
+    private static final Json.Path REPLY = Json.Path.compile("candidates[0].content.parts[*].text");
+
+    private byte[] chatRequest;
+    private String geminiResponse;
+    private GeminiProvider.GeminiRequest geminiRequest;
+    private RequestTemplate template;
+    private List<String[]> turns;
+    private String message;
+
+    @Setup
+    public void setup() throws IOException {
+        chatRequest = Fixtures.bytes("chat-request.json");
+        geminiResponse = new String(Fixtures.bytes("gemini-response.json"), StandardCharsets.UTF_8);
+
+        Main.ChatRequest req = readChatRequest();
+        List<GeminiProvider.Content> contents = new ArrayList<>();
+        turns = new ArrayList<>();
+        for (Main.HistoryItem h : req.history()) {
+            String role = h.role().equals("ai") ? "model" : "user";
+            contents.add(new GeminiProvider.Content(role, List.of(new GeminiProvider.Part(h.text()))));
+            turns.add(new String[]{role, h.text()});
+        }
+        message = req.message();
+        contents.add(new GeminiProvider.Content("user", List.of(new GeminiProvider.Part(message))));
+        GeminiProvider.Content system = new GeminiProvider.Content(null, List.of(new GeminiProvider.Part("system")));
+        GeminiProvider.GenerationConfig config = new GeminiProvider.GenerationConfig(0.6, 512);
+        geminiRequest = new GeminiProvider.GeminiRequest(system, contents, config);
+        template = new RequestTemplate(system, config);
+    }
+
+    @Benchmark
+    public Main.ChatRequest readChatRequest() throws IOException {
+        return Json.read(new ByteArrayInputStream(chatRequest), Main.ChatRequest.class, Long.MAX_VALUE, 16);
+    }
+
+    @Benchmark
+    public byte[] encodeGeminiRequest() {
+        return Json.toBytes(geminiRequest);
+    }
+
+    @Benchmark
+    public RequestTemplate.Body encodeGeminiRequestTemplate() {
+        return template.body(message, turns);
+    }
+
+    @Benchmark
+    public List<Object> selectReply() {
+        return Json.select(geminiResponse, REPLY);
+    }
+}
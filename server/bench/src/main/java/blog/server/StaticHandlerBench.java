@@ -0,0 +1,93 @@
+package blog.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StaticHandler on an in-memory exchange: a small HTML page (served from the asset cache,
+ * optionally pre-gzipped) and a large file above STATIC_STREAM_MIN_BYTES (streamed from disk).
+ * "revalidate" sends the ETag back, measuring the 304 path. source "bundle" serves the same
+ * files from a prebuilt, memory-mapped AssetBundle instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StaticHandlerBench {
+    @Param({"small.html", "large.bin"})
+    String file;
+
+    @Param({"identity", "gzip", "revalidate"})
+    String mode;
+
+    @Param({"cache", "bundle"})
+    String source;
+
+    private Path root;
+    private Main.StaticHandler handler;
+    private String etag;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("bench-site");
+        StringBuilder html = new StringBuilder("<!doctype html><html><head><title>Blog</title></head><body>\n");
+        while (html.length() < 6 * 1024) {
+            html.append("<p>Ghi chép học Java 22, JavaScript và các dự án cá nhân.</p>\n");
+        }
+        html.append("</body></html>\n");
+        Files.writeString(root.resolve("small.html"), html, StandardCharsets.UTF_8);
+        byte[] large = new byte[2 * 1024 * 1024];
+        new Random(42).nextBytes(large);
+        Files.write(root.resolve("large.bin"), large);
+
+        if (source.equals("bundle")) {
+            AssetBundle.build(root, root.resolve("site.bundle"), Main.StaticHandler::contentType);
+            handler = new Main.StaticHandler(AssetBundle.open(root.resolve("site.bundle")));
+        } else {
+            handler = new Main.StaticHandler(root, Main.newAssetCache(root));
+        }
+        BenchExchange probe = new BenchExchange("GET", "/" + file, null);
+        handler.handle(probe);
+        if (probe.status() != 200) throw new IllegalStateException("GET /" + file + " -> " + probe.status());
+        etag = probe.getResponseHeaders().getFirst("ETag");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(root.resolve("small.html"));
+        Files.deleteIfExists(root.resolve("large.bin"));
+        Files.deleteIfExists(root.resolve("site.bundle"));
+        Files.deleteIfExists(root);
+    }
+
+    @Benchmark
+    public long serve() throws IOException {
+        BenchExchange ex = new BenchExchange("GET", "/" + file, null);
+        switch (mode) {
+            case "gzip" -> ex.getRequestHeaders().set("Accept-Encoding", "gzip");
+            case "revalidate" -> ex.getRequestHeaders().set("If-None-Match", etag);
+            default -> { }
+        }
+        handler.handle(ex);
+        return ex.bytesWritten() + ex.status();
+    }
+}
@@ -5,7 +5,9 @@ Push-Location (Split-Path -Parent $MyInvocation.MyCommand.Path)
 
 try {
   if (-not (Test-Path ".\out")) { New-Item -ItemType Directory -Path ".\out" | Out-Null }
-  javac -encoding UTF-8 -d .\out .\Json.java .\Main.java
+  # same sources Maven builds (app module); javac alone is enough to run locally
+  $sources = Get-ChildItem -Path .\app\src\main\java -Recurse -Filter *.java | ForEach-Object { $_.FullName }
+  javac -encoding UTF-8 -d .\out @sources
 
   if (-not $env:GEMINI_API_KEY) {
     Write-Host ""
@@ -16,7 +18,7 @@ try {
   }
 
   Write-Host "Starting server on http://localhost:8000 ..." -ForegroundColor Green
-  java -cp .\out Main
+  java -cp .\out blog.server.Main
 }
 finally {
   Pop-Location